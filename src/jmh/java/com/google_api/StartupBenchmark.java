@@ -0,0 +1,67 @@
+package com.google_api;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time until the application is ready to serve (the point {@code ApplicationReadyEvent} fires) with
+ * {@code google.auth.mode=stored}: no browser, no token request and no Google client is created on the way.
+ * Each iteration is one start; only the first iteration of a fork sees a cold JVM, so compare against
+ * {@code java -jar} wall time (with and without a CDS archive) for absolute cold-start numbers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StartupBenchmark {
+
+    private Path workDir;
+    private ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("bench-startup");
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        if (context != null) {
+            context.close();
+            context = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(workDir);
+    }
+
+    @Benchmark
+    public ConfigurableApplicationContext timeToReady() {
+        context = new SpringApplicationBuilder(GoogleApiApplication.class)
+                .properties(
+                        "server.port=0",
+                        "gmail.user.email=bench@example.com",
+                        "google.auth.mode=stored",
+                        "google.auth.tokens-dir=" + workDir.resolve("tokens"),
+                        "google.accounts.warmup=false",
+                        "gmail.index.file=" + workDir.resolve("index/messages.ndjson"),
+                        "gmail.content-cache.dir=" + workDir.resolve("cache"),
+                        "gmail.sync.checkpoint-file=" + workDir.resolve("sync/history-checkpoint"))
+                .run();
+        return context;
+    }
+}
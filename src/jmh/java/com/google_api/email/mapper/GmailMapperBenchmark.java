@@ -0,0 +1,95 @@
+package com.google_api.email.mapper;
+
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import com.google_api.email.dto.GmailDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ns/op of the current and legacy mappers; run with the gc profiler (configured in build.gradle)
+ * for bytes/op ({@code gc.alloc.rate.norm}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GmailMapperBenchmark {
+
+    @Param({"metadata", "full"})
+    public String fixture;
+
+    private final GmailMapper gmailMapper = new GmailMapper();
+    private final LegacyGmailMapper legacyGmailMapper = new LegacyGmailMapper();
+    private Message message;
+
+    @Setup
+    public void setUp() {
+        message = "metadata".equals(fixture) ? metadataMessage() : fullHeaderMessage();
+    }
+
+    @Benchmark
+    public GmailDto current() {
+        return gmailMapper.messageToDto(message);
+    }
+
+    @Benchmark
+    public GmailDto legacy() {
+        return legacyGmailMapper.messageToDto(message);
+    }
+
+    // What Gmail returns for GmailMapper.PROJECTION.
+    static Message metadataMessage() {
+        List<MessagePartHeader> headers = new ArrayList<>();
+        headers.add(header("From", "Priya Raman <priya.raman@example.com>"));
+        headers.add(header("To", "ops@example.com,Arun K <arun.k@example.com>,alerts@example.org"));
+        headers.add(header("Subject", "Re: Invoice #48213 overdue - action required"));
+        return message(headers);
+    }
+
+    // A typical format=full header block from a mailing-list message.
+    static Message fullHeaderMessage() {
+        List<MessagePartHeader> headers = new ArrayList<>();
+        headers.add(header("Delivered-To", "ops@example.com"));
+        for (int i = 0; i < 6; i++) {
+            headers.add(header("Received", "from mail-sor-f41.google.com (mail-sor-f41.google.com. [209.85.220.41]) by mx.google.com with SMTPS id " + i));
+        }
+        headers.add(header("ARC-Seal", "i=1; a=rsa-sha256; t=1718000000; cv=none; d=google.com; s=arc-20160816; b=Zm9vYmFy"));
+        headers.add(header("ARC-Message-Signature", "i=1; a=rsa-sha256; c=relaxed/relaxed; d=google.com; s=arc-20160816; h=to:subject:message-id:date:from:mime-version"));
+        headers.add(header("ARC-Authentication-Results", "i=1; mx.google.com; dkim=pass header.i=@example.com; spf=pass"));
+        headers.add(header("Return-Path", "<priya.raman@example.com>"));
+        headers.add(header("DKIM-Signature", "v=1; a=rsa-sha256; c=relaxed/relaxed; d=example.com; s=20230601; h=to:subject:message-id:date:from; bh=YmFy; b=Zm9v"));
+        headers.add(header("MIME-Version", "1.0"));
+        headers.add(header("From", "Priya Raman <priya.raman@example.com>"));
+        headers.add(header("Date", "Mon, 10 Jun 2024 10:13:20 +0530"));
+        headers.add(header("Message-ID", "<CAF=abc123@mail.example.com>"));
+        headers.add(header("Subject", "Re: Invoice #48213 overdue - action required"));
+        headers.add(header("To", "ops@example.com,Arun K <arun.k@example.com>,alerts@example.org"));
+        headers.add(header("Cc", "finance@example.com"));
+        headers.add(header("List-Unsubscribe", "<mailto:unsubscribe@example.com>"));
+        headers.add(header("Content-Type", "multipart/alternative; boundary=\"000000000000abcdef\""));
+        return message(headers);
+    }
+
+    private static Message message(List<MessagePartHeader> headers) {
+        return new Message()
+                .setId("18f0c3a2b4d5e6f7")
+                .setThreadId("18f0c3a2b4d5e6f7")
+                .setInternalDate(1718000000000L)
+                .setSnippet("Hi team, following up on the invoice below which is now 14 days overdue. Could you confirm")
+                .setPayload(new MessagePart().setHeaders(headers));
+    }
+
+    private static MessagePartHeader header(String name, String value) {
+        return new MessagePartHeader().setName(name).setValue(value);
+    }
+}
@@ -0,0 +1,71 @@
+package com.google_api.email.service;
+
+import com.google_api.email.dto.BulkReplyResultDto;
+import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.ReplyEmailDto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.web.server.ResponseStatusException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * ops/s for the main endpoints under many concurrent callers, submitted through {@link GoogleCallExecutor}
+ * as the controller does, so the per-endpoint bulkheads, virtual-thread hand-off and fan-out metering are
+ * part of the cost. Calls turned away by a bulkhead are counted in {@code rejected} rather than the score.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(64)
+public class ConcurrentEndpointBenchmark {
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rejections {
+        public long rejected;
+    }
+
+    @Benchmark
+    public List<GmailDto> fetchUnread(StubbedServices services, Rejections rejections) {
+        return call(services, rejections, "unread-emails", () -> services.mailService.readAndLabelUnreadEmailsFromInbox(0));
+    }
+
+    @Benchmark
+    public String reply(StubbedServices services, Rejections rejections) {
+        return call(services, rejections, "reply",
+                () -> services.replyService.replyToEmail(new ReplyEmailDto("msg-0", null, "Thanks, paid today.")));
+    }
+
+    @Benchmark
+    public List<BulkReplyResultDto> bulkReply(StubbedServices services, Rejections rejections) {
+        return call(services, rejections, "reply-bulk", () -> services.replyService.replyToEmails(services.bulkReplies));
+    }
+
+    @Benchmark
+    public List<CalendarEventDto> listEvents(StubbedServices services, Rejections rejections) {
+        return call(services, rejections, "get-events", services.calenderService::getAllEventDetails);
+    }
+
+    private static <T> T call(StubbedServices services, Rejections rejections, String endpoint, Supplier<T> work) {
+        CompletableFuture<T> result = services.callExecutor.submit(endpoint, work);
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ResponseStatusException) {
+                rejections.rejected++;
+                return null;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.google_api.email.service;
+
+import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.ReplyEmailDto;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency distribution (p50 to p99.99) for the same calls as {@link ServiceThroughputBenchmark}.
+ * Run with {@code -t N} to see how the tail grows under concurrent callers.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ServiceLatencyBenchmark {
+
+    @Benchmark
+    public List<GmailDto> fetchUnread(StubbedServices services) {
+        return services.mailService.readAndLabelUnreadEmailsFromInbox(0);
+    }
+
+    @Benchmark
+    public String moveToSpam(StubbedServices services) {
+        return services.mailService.moveMessageToSpamWithLabelAndUnread("msg-0");
+    }
+
+    // Returns once the operation is synced to the journal; the Gmail calls happen on the outbox workers.
+    @Benchmark
+    public MailOutbox.Operation moveToSpamJournaled(StubbedServices services) {
+        return services.mailService.submitMoveToSpam("msg-0", null);
+    }
+
+    @Benchmark
+    public String reply(StubbedServices services) {
+        return services.replyService.replyToEmail(new ReplyEmailDto("msg-0", null, "Thanks, paid today."));
+    }
+
+    @Benchmark
+    public List<CalendarEventDto> listEvents(StubbedServices services) {
+        return services.calenderService.getAllEventDetails();
+    }
+}
@@ -0,0 +1,85 @@
+package com.google_api.email.service;
+
+import com.google_api.config.StubGoogleTransport;
+import com.google_api.email.dto.BulkReplyResultDto;
+import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.ReplyEmailDto;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ops/s for the service calls behind the main endpoints. The {@code httpRequests} and {@code apiCalls}
+ * counters are reported per second as well, so dividing them by the score gives round trips and API
+ * calls per operation; they are exact at one thread, which is why this class pins {@link Threads}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(1)
+public class ServiceThroughputBenchmark {
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RoundTrips {
+        public long httpRequests;
+        public long apiCalls;
+
+        void record(StubGoogleTransport transport, long requestsBefore, long callsBefore) {
+            httpRequests += transport.roundTrips() - requestsBefore;
+            apiCalls += transport.apiCalls() - callsBefore;
+        }
+    }
+
+    @Benchmark
+    public List<GmailDto> fetchUnread(StubbedServices services, RoundTrips roundTrips) {
+        long requests = services.transport.roundTrips();
+        long calls = services.transport.apiCalls();
+        List<GmailDto> emails = services.mailService.readAndLabelUnreadEmailsFromInbox(0);
+        roundTrips.record(services.transport, requests, calls);
+        return emails;
+    }
+
+    @Benchmark
+    public String moveToSpam(StubbedServices services, RoundTrips roundTrips) {
+        long requests = services.transport.roundTrips();
+        long calls = services.transport.apiCalls();
+        String result = services.mailService.moveMessageToSpamWithLabelAndUnread("msg-0");
+        roundTrips.record(services.transport, requests, calls);
+        return result;
+    }
+
+    @Benchmark
+    public String reply(StubbedServices services, RoundTrips roundTrips) {
+        long requests = services.transport.roundTrips();
+        long calls = services.transport.apiCalls();
+        String result = services.replyService.replyToEmail(new ReplyEmailDto("msg-0", null, "Thanks, paid today."));
+        roundTrips.record(services.transport, requests, calls);
+        return result;
+    }
+
+    @Benchmark
+    public List<BulkReplyResultDto> bulkReply(StubbedServices services, RoundTrips roundTrips) {
+        long requests = services.transport.roundTrips();
+        long calls = services.transport.apiCalls();
+        List<BulkReplyResultDto> results = services.replyService.replyToEmails(services.bulkReplies);
+        roundTrips.record(services.transport, requests, calls);
+        return results;
+    }
+
+    @Benchmark
+    public List<CalendarEventDto> listEvents(StubbedServices services, RoundTrips roundTrips) {
+        long requests = services.transport.roundTrips();
+        long calls = services.transport.apiCalls();
+        List<CalendarEventDto> events = services.calenderService.getAllEventDetails();
+        roundTrips.record(services.transport, requests, calls);
+        return events;
+    }
+}
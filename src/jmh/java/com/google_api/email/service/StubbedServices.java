@@ -0,0 +1,106 @@
+package com.google_api.email.service;
+
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.config.StubContext;
+import com.google_api.config.StubGoogleTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google_api.email.dto.ReplyEmailDto;
+import com.google_api.email.mapper.CalendarEventMapper;
+import com.google_api.email.mapper.GmailMapper;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.util.FileSystemUtils;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The production services wired by {@link StubContext} against a {@link StubGoogleTransport}, with the code
+ * defaults for every setting not overridden below. Quota is effectively unlimited so the numbers show client
+ * cost and round trips rather than the token bucket.
+ */
+@State(Scope.Benchmark)
+public class StubbedServices {
+
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+    private static final String USER_EMAIL = "bench@example.com";
+
+    @Param({"0", "25"})
+    public long latencyMillis;
+
+    @Param({"20", "100"})
+    public int messagesPerPage;
+
+    @Param({"0"})
+    public int extraHeaders;
+
+    @Param({"200"})
+    public int eventCount;
+
+    StubGoogleTransport transport;
+    GMailConnectorService mailService;
+    ReplyService replyService;
+    CalenderService calenderService;
+    MailOutbox outbox;
+    GoogleCallExecutor callExecutor;
+    List<ReplyEmailDto> bulkReplies;
+
+    private AnnotationConfigApplicationContext context;
+    private Path indexDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        indexDir = Files.createTempDirectory("bench-index");
+        bulkReplies = new ArrayList<>();
+        for (int i = 0; i < messagesPerPage; i++) {
+            bulkReplies.add(new ReplyEmailDto("msg-" + i, null, "Thanks, paid today."));
+        }
+        transport = new StubGoogleTransport(JSON_FACTORY, latencyMillis, messagesPerPage, extraHeaders, eventCount);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("gmail.user.email", USER_EMAIL);
+        properties.put("google.quota.gmail.units-per-second", 1e9);
+        properties.put("google.quota.gmail.burst", 1e9);
+        properties.put("google.quota.calendar.units-per-second", 1e9);
+        properties.put("google.quota.calendar.burst", 1e9);
+        // Result TTL 0 and no DTO reuse between calls, so every fetch pays the full fan-out.
+        properties.put("gmail.unread-cache.result-ttl", "PT0S");
+        properties.put("gmail.unread-cache.max-messages", 0);
+        properties.put("gmail.index.file", indexDir.resolve("messages.ndjson").toString());
+        properties.put("gmail.outbox.journal-file", indexDir.resolve("outbox/journal.ndjson").toString());
+        // Finished operations are forgotten straight away so a long run does not accumulate them.
+        properties.put("gmail.outbox.retention", "PT0S");
+        // The endpoint bulkheads from application.yml, for benchmarks that go through GoogleCallExecutor.
+        properties.put("google.concurrency.limits.unread-emails", 32);
+        properties.put("google.concurrency.limits.reply", 16);
+        properties.put("google.concurrency.limits.reply-bulk", 4);
+
+        context = StubContext.start(transport, properties,
+                GoogleAccountRegistry.class, GoogleApiMetrics.class, GoogleApiScheduler.class, GoogleCallExecutor.class,
+                GmailMapper.class, CalendarEventMapper.class, GmailBatchFetcher.class, GmailLabelRegistry.class,
+                MailSearchIndex.class, LabelMutationCoalescer.class, UnreadEmailCache.class, MutationJournal.class,
+                MailOutbox.class, GMailConnectorService.class, ReplyService.class, CalendarEventStore.class,
+                CalenderService.class);
+        mailService = context.getBean(GMailConnectorService.class);
+        replyService = context.getBean(ReplyService.class);
+        calenderService = context.getBean(CalenderService.class);
+        outbox = context.getBean(MailOutbox.class);
+        callExecutor = context.getBean(GoogleCallExecutor.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+        FileSystemUtils.deleteRecursively(indexDir.toFile());
+    }
+}
@@ -0,0 +1,64 @@
+package com.google_api.config;
+
+import java.util.function.Supplier;
+
+/**
+ * The account id the current thread works for. {@link AccountWebConfig} binds it for
+ * {@code /api/v1/accounts/{accountId}/...} requests; work handed to another thread carries it along with
+ * one of the {@code wrap} methods. Unbound threads use the default account.
+ */
+public final class AccountContext {
+
+    private static final ThreadLocal<String> CURRENT = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface Task<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    private AccountContext() {
+    }
+
+    public static String currentAccountId() {
+        return CURRENT.get();
+    }
+
+    public static <T, E extends Exception> T callAs(String accountId, Task<T, E> task) throws E {
+        String previous = CURRENT.get();
+        set(accountId);
+        try {
+            return task.call();
+        } finally {
+            set(previous);
+        }
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> supplier) {
+        String accountId = CURRENT.get();
+        return () -> callAs(accountId, supplier::get);
+    }
+
+    public static Runnable wrap(Runnable runnable) {
+        String accountId = CURRENT.get();
+        return () -> callAs(accountId, () -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    static void bind(String accountId) {
+        CURRENT.set(accountId);
+    }
+
+    static void clear() {
+        CURRENT.remove();
+    }
+
+    private static void set(String accountId) {
+        if (accountId != null) {
+            CURRENT.set(accountId);
+        } else {
+            CURRENT.remove();
+        }
+    }
+}
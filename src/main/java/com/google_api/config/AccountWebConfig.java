@@ -0,0 +1,53 @@
+package com.google_api.config;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import java.util.Map;
+
+/**
+ * Binds the {@code {accountId}} path variable to {@link AccountContext} for the duration of the request
+ * thread; unknown ids are rejected with 404 before the handler runs.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class AccountWebConfig implements WebMvcConfigurer {
+
+    private final GoogleAccountRegistry accounts;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(new AsyncHandlerInterceptor() {
+            @Override
+            public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                @SuppressWarnings("unchecked")
+                Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+                String accountId = variables != null ? variables.get("accountId") : null;
+                if (accountId != null) {
+                    if (!accounts.exists(accountId)) {
+                        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown account: " + accountId);
+                    }
+                    AccountContext.bind(accountId);
+                }
+                return true;
+            }
+
+            @Override
+            public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+                AccountContext.clear();
+            }
+
+            @Override
+            public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+                AccountContext.clear();
+            }
+        }).addPathPatterns("/api/v1/accounts/**");
+    }
+}
@@ -0,0 +1,91 @@
+package com.google_api.config;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.gmail.Gmail;
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * One mailbox: its Gmail and Calendar clients on the shared transport, and a credential that is only
+ * loaded when the first request for the account goes out.
+ */
+public final class GoogleAccount {
+
+    private static final String APPLICATION_NAME = "GoogleApi";
+    private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+    private final String id;
+    private final String email;
+    private final GoogleCredentialSource credentialSource;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final Gmail gmail;
+    private final Calendar calendar;
+    private volatile Credential credential;
+
+    GoogleAccount(String id, String email, GoogleCredentialSource credentialSource, HttpTransport transport,
+                  Duration connectTimeout, Duration readTimeout) {
+        this.id = id;
+        this.email = email;
+        this.credentialSource = credentialSource;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.gmail = new Gmail.Builder(transport, JSON_FACTORY, this::initialize)
+                .setApplicationName(APPLICATION_NAME)
+                .build();
+        this.calendar = new Calendar.Builder(transport, JSON_FACTORY, this::initialize)
+                .setApplicationName(APPLICATION_NAME)
+                .build();
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String email() {
+        return email;
+    }
+
+    public Gmail gmail() {
+        return gmail;
+    }
+
+    public Calendar calendar() {
+        return calendar;
+    }
+
+    /**
+     * The credential if it has been loaded, otherwise {@code null}.
+     */
+    Credential loadedCredential() {
+        return credential;
+    }
+
+    /**
+     * The credential, loading it from the source on first call.
+     */
+    Credential credential() throws IOException {
+        Credential current = credential;
+        if (current == null) {
+            synchronized (this) {
+                current = credential;
+                if (current == null) {
+                    current = credentialSource.load(id, email);
+                    credential = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private void initialize(HttpRequest request) throws IOException {
+        credential().initialize(request);
+        request.setConnectTimeout((int) connectTimeout.toMillis());
+        request.setReadTimeout((int) readTimeout.toMillis());
+    }
+}
@@ -0,0 +1,195 @@
+package com.google_api.config;
+
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpTransport;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * The mailboxes this instance serves: the default account ({@code google.accounts.default-id}, address
+ * {@code gmail.user.email}) plus every {@code google.accounts.mailboxes.<id>: <address>} entry. Clients are
+ * created on first use and share the one HTTP transport. Every {@code google.accounts.refresh-check-interval}
+ * access tokens expiring within {@code google.accounts.refresh-ahead} are refreshed in the background, at
+ * most {@code google.accounts.refresh-concurrency} at a time, so requests do not pay for the refresh.
+ * Nothing here touches the transport or a credential while the context starts.
+ */
+@Component
+@RequiredArgsConstructor
+public class GoogleAccountRegistry {
+
+    private final ObjectProvider<HttpTransport> googleHttpTransport;
+    private final GoogleCredentialSource credentialSource;
+    private final Environment environment;
+
+    @Value("${google.accounts.default-id:user}")
+    private String defaultAccountId;
+
+    @Value("${gmail.user.email}")
+    private String defaultEmail;
+
+    @Value("${google.accounts.refresh-ahead:PT5M}")
+    private Duration refreshAhead;
+
+    @Value("${google.accounts.refresh-check-interval:PT1M}")
+    private Duration refreshCheckInterval;
+
+    @Value("${google.accounts.refresh-concurrency:8}")
+    private int refreshConcurrency;
+
+    @Value("${google.accounts.warmup:true}")
+    private boolean warmup;
+
+    @Value("${google.http.connect-timeout:PT10S}")
+    private Duration connectTimeout;
+
+    @Value("${google.http.read-timeout:PT30S}")
+    private Duration readTimeout;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GoogleAccountRegistry.class);
+
+    private final Map<String, GoogleAccount> accounts = new ConcurrentHashMap<>();
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService refreshScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService refreshWorkers = Executors.newVirtualThreadPerTaskExecutor();
+    private Map<String, String> emails;
+    private Semaphore refreshPermits;
+
+    @PostConstruct
+    void init() {
+        Map<String, String> configured = new LinkedHashMap<>();
+        configured.put(defaultAccountId, defaultEmail);
+        configured.putAll(Binder.get(environment)
+                .bind("google.accounts.mailboxes", Bindable.mapOf(String.class, String.class))
+                .orElse(Map.of()));
+        emails = Collections.unmodifiableMap(configured);
+        refreshPermits = new Semaphore(refreshConcurrency);
+        refreshScheduler.scheduleWithFixedDelay(this::refreshExpiring,
+                refreshCheckInterval.toMillis(), refreshCheckInterval.toMillis(), TimeUnit.MILLISECONDS);
+        logger.info(AGENT_EMOJI +"AGENT_ACCOUNTS - Serving {} accounts", emails.size());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refreshScheduler.shutdownNow();
+        refreshWorkers.shutdownNow();
+    }
+
+    /**
+     * Loads every account's credential and fetches a fresh access token in parallel once the app is ready,
+     * so the first requests do not pay for it. Startup itself never waits on this, and an interactive
+     * credential source is left alone because loading could open a browser.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    void warmUp() {
+        if (!warmup || credentialSource.interactive()) {
+            return;
+        }
+        for (String accountId : emails.keySet()) {
+            refreshWorkers.execute(() -> warmUp(get(accountId)));
+        }
+    }
+
+    /**
+     * The account bound to this thread by {@link AccountContext}, or the default account.
+     */
+    public GoogleAccount current() {
+        String accountId = AccountContext.currentAccountId();
+        return get(accountId != null ? accountId : defaultAccountId);
+    }
+
+    public GoogleAccount get(String accountId) {
+        String email = emails.get(accountId);
+        if (email == null) {
+            throw new NoSuchElementException("Unknown account: " + accountId);
+        }
+        return accounts.computeIfAbsent(accountId, id -> new GoogleAccount(
+                id, email, credentialSource, googleHttpTransport.getObject(), connectTimeout, readTimeout));
+    }
+
+    public boolean exists(String accountId) {
+        return emails.containsKey(accountId);
+    }
+
+    public Set<String> accountIds() {
+        return emails.keySet();
+    }
+
+    private void refreshExpiring() {
+        for (GoogleAccount account : accounts.values()) {
+            Credential credential = account.loadedCredential();
+            if (credential == null) {
+                continue;
+            }
+            Long expiresInSeconds = credential.getExpiresInSeconds();
+            if (expiresInSeconds == null || expiresInSeconds * 1000 > refreshAhead.toMillis()) {
+                continue;
+            }
+            if (refreshing.add(account.id())) {
+                refreshWorkers.execute(() -> refresh(account.id(), credential));
+            }
+        }
+    }
+
+    private void warmUp(GoogleAccount account) {
+        try {
+            refreshPermits.acquire();
+            try {
+                Credential credential = account.credential();
+                Long expiresInSeconds = credential.getExpiresInSeconds();
+                if (credential.getAccessToken() == null
+                        || (expiresInSeconds != null && expiresInSeconds * 1000 <= refreshAhead.toMillis())) {
+                    credential.refreshToken();
+                }
+            } finally {
+                refreshPermits.release();
+            }
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_ACCOUNTS - Warm-up for {} failed: {}", account.id(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void refresh(String accountId, Credential credential) {
+        try {
+            refreshPermits.acquire();
+            try {
+                if (!credential.refreshToken()) {
+                    logger.warn(AGENT_EMOJI +"AGENT_ACCOUNTS - Token refresh for {} was rejected", accountId);
+                }
+            } finally {
+                refreshPermits.release();
+            }
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_ACCOUNTS - Token refresh for {} failed: {}", accountId, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            refreshing.remove(accountId);
+        }
+    }
+}
@@ -1,32 +1,52 @@
 package com.google_api.config;
 
+import com.google.api.client.auth.oauth2.BearerToken;
 import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.auth.oauth2.TokenResponse;
 import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
 import com.google.api.client.util.store.FileDataStoreFactory;
-import com.google.api.services.gmail.Gmail;
 import com.google.api.services.gmail.GmailScopes;
-import com.google.api.services.calendar.Calendar;
 import com.google.api.services.calendar.CalendarScopes;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.security.GeneralSecurityException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 
+/**
+ * Picks how account credentials are obtained from {@code google.auth.mode}:
+ * <ul>
+ *   <li>{@code interactive}: tokens stored under {@code google.auth.tokens-dir}, falling back to the browser
+ *   consent flow for an account that has none (development).</li>
+ *   <li>{@code stored}: stored tokens only; an account without tokens fails instead of waiting on a browser.</li>
+ *   <li>{@code service-account}: the key at {@code google.auth.service-account-key}, impersonating each
+ *   account's address through domain-wide delegation.</li>
+ * </ul>
+ * The mode is read when the bean is created rather than through conditional beans, so the wiring stays the
+ * same for AOT processing. Nothing here touches the network or the key material until the first account
+ * needs a credential, which keeps context refresh fast and lets a CDS training run
+ * ({@code -Dspring.context.exit=onRefresh}) complete without credentials.
+ */
 @Configuration
 public class GoogleApiConfig {
 
-    private static final String APPLICATION_NAME = "GoogleApi";
     private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
 
     private static final List<String> SCOPES = List.of(
@@ -35,50 +55,121 @@ public class GoogleApiConfig {
     );
 
     private static final String CREDENTIALS_FILE_PATH = "/credentials.json";
-    private static final String TOKENS_DIRECTORY_PATH = "tokens";
+
+    @Value("${google.auth.mode:interactive}")
+    private String authMode;
+
+    @Value("${google.auth.tokens-dir:tokens}")
+    private String tokensDir;
+
+    @Value("${google.auth.service-account-key:}")
+    private String serviceAccountKey;
 
     @Bean
-    public Credential googleCredential() throws IOException, GeneralSecurityException {
-        InputStream in = getClass().getResourceAsStream(CREDENTIALS_FILE_PATH);
-        if (in == null) {
-            throw new FileNotFoundException("Resource not found: " + CREDENTIALS_FILE_PATH);
+    @Profile("!stub")
+    public GoogleCredentialSource googleCredentialSource(ObjectProvider<HttpTransport> googleHttpTransport) {
+        return switch (authMode) {
+            case "interactive" -> new StoredTokenSource(googleHttpTransport, true);
+            case "stored" -> new StoredTokenSource(googleHttpTransport, false);
+            case "service-account" -> new ServiceAccountSource(googleHttpTransport);
+            default -> throw new IllegalStateException("Unknown google.auth.mode: " + authMode);
+        };
+    }
+
+    private final class StoredTokenSource implements GoogleCredentialSource {
+
+        private final ObjectProvider<HttpTransport> transport;
+        private final boolean interactive;
+        private GoogleAuthorizationCodeFlow flow;
+
+        private StoredTokenSource(ObjectProvider<HttpTransport> transport, boolean interactive) {
+            this.transport = transport;
+            this.interactive = interactive;
         }
 
-        GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(
-                JSON_FACTORY, new InputStreamReader(in));
+        @Override
+        public Credential load(String accountId, String email) throws IOException {
+            GoogleAuthorizationCodeFlow codeFlow = flow();
+            Credential stored = codeFlow.loadCredential(accountId);
+            if (stored != null) {
+                return stored;
+            }
+            if (!interactive) {
+                throw new IOException("No stored tokens for account " + accountId + " in " + tokensDir
+                        + "; authorize it once with google.auth.mode=interactive");
+            }
+            // One consent flow at a time: they all share the receiver port.
+            synchronized (this) {
+                LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
+                return new AuthorizationCodeInstalledApp(codeFlow, receiver).authorize(accountId);
+            }
+        }
 
-        GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                JSON_FACTORY,
-                clientSecrets,
-                SCOPES)
-                .setDataStoreFactory(new FileDataStoreFactory(new java.io.File(TOKENS_DIRECTORY_PATH)))
-                .setAccessType("offline")
-                .build();
+        @Override
+        public boolean interactive() {
+            return interactive;
+        }
 
-        LocalServerReceiver receiver = new LocalServerReceiver.Builder().setPort(8888).build();
-        return new AuthorizationCodeInstalledApp(flow, receiver).authorize("user");
-    }
+        private synchronized GoogleAuthorizationCodeFlow flow() throws IOException {
+            if (flow == null) {
+                InputStream in = GoogleApiConfig.class.getResourceAsStream(CREDENTIALS_FILE_PATH);
+                if (in == null) {
+                    throw new FileNotFoundException("Resource not found: " + CREDENTIALS_FILE_PATH);
+                }
 
+                GoogleClientSecrets clientSecrets = GoogleClientSecrets.load(
+                        JSON_FACTORY, new InputStreamReader(in));
 
-    @Bean
-    public Gmail gmailService(Credential credential) throws GeneralSecurityException, IOException {
-        return new Gmail.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                JSON_FACTORY,
-                credential)
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+                flow = new GoogleAuthorizationCodeFlow.Builder(
+                        transport.getObject(),
+                        JSON_FACTORY,
+                        clientSecrets,
+                        SCOPES)
+                        .setDataStoreFactory(new FileDataStoreFactory(new java.io.File(tokensDir)))
+                        .setAccessType("offline")
+                        .build();
+            }
+            return flow;
+        }
     }
 
+    private final class ServiceAccountSource implements GoogleCredentialSource {
 
-    @Bean
-    public Calendar calendarService(Credential credential) throws GeneralSecurityException, IOException {
-        return new Calendar.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
-                JSON_FACTORY,
-                credential)
-                .setApplicationName(APPLICATION_NAME)
-                .build();
+        private final ObjectProvider<HttpTransport> transport;
+        private GoogleCredentials scoped;
+
+        private ServiceAccountSource(ObjectProvider<HttpTransport> transport) {
+            this.transport = transport;
+        }
+
+        @Override
+        public Credential load(String accountId, String email) throws IOException {
+            GoogleCredentials delegated = scoped().createDelegated(email);
+            // Token requests go through the shared transport; the Credential refreshes like a stored token would.
+            return new Credential(BearerToken.authorizationHeaderAccessMethod()) {
+                @Override
+                protected TokenResponse executeRefreshToken() throws IOException {
+                    AccessToken token = delegated.refreshAccessToken();
+                    // Without an expiration the token is refreshed when a request comes back 401.
+                    Long expiresInSeconds = token.getExpirationTime() == null ? null
+                            : (token.getExpirationTime().getTime() - System.currentTimeMillis()) / 1000;
+                    return new TokenResponse()
+                            .setAccessToken(token.getTokenValue())
+                            .setExpiresInSeconds(expiresInSeconds);
+                }
+            };
+        }
+
+        private synchronized GoogleCredentials scoped() throws IOException {
+            if (scoped == null) {
+                if (serviceAccountKey.isBlank()) {
+                    throw new FileNotFoundException("google.auth.service-account-key is not set");
+                }
+                try (InputStream in = Files.newInputStream(Path.of(serviceAccountKey))) {
+                    scoped = ServiceAccountCredentials.fromStream(in, transport::getObject).createScoped(SCOPES);
+                }
+            }
+            return scoped;
+        }
     }
 }
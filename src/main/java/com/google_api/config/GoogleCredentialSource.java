@@ -0,0 +1,21 @@
+package com.google_api.config;
+
+import com.google.api.client.auth.oauth2.Credential;
+import java.io.IOException;
+
+/**
+ * Produces the OAuth credential for an account. Called once per account, on its first Google request or
+ * during start-up warm-up.
+ */
+@FunctionalInterface
+public interface GoogleCredentialSource {
+
+    Credential load(String accountId, String email) throws IOException;
+
+    /**
+     * Whether {@link #load} may block on a user (browser consent); such sources are never warmed up eagerly.
+     */
+    default boolean interactive() {
+        return false;
+    }
+}
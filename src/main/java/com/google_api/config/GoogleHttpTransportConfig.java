@@ -0,0 +1,79 @@
+package com.google_api.config;
+
+import com.google.api.client.googleapis.GoogleUtils;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
+import com.google.api.client.util.SslUtils;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The pooled transport every Google client shares. Both beans are lazy: the trust store load and the pool
+ * are only built when the first account creates its clients, not during context refresh.
+ */
+@Configuration
+public class GoogleHttpTransportConfig {
+
+    @Value("${google.http.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${google.http.max-connections-per-route:50}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${google.http.keep-alive:PT30S}")
+    private Duration keepAlive;
+
+    @Value("${google.http.gzip:true}")
+    private boolean gzip;
+
+    @Bean(destroyMethod = "shutdown")
+    @Lazy
+    public PoolingHttpClientConnectionManager googleConnectionManager() throws IOException, GeneralSecurityException {
+        // Same trust store GoogleNetHttpTransport.newTrustedTransport() uses, loaded once.
+        SSLContext sslContext = SslUtils.getTlsSslContext();
+        SslUtils.initSslContext(sslContext, GoogleUtils.getCertificateTrustStore(), SslUtils.getPkixTrustManagerFactory());
+
+        Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                .register("https", new SSLConnectionSocketFactory(sslContext))
+                .build();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setValidateAfterInactivity((int) keepAlive.toMillis());
+        return connectionManager;
+    }
+
+    @Bean
+    @Lazy
+    @Profile("!stub")
+    public HttpTransport googleHttpTransport(PoolingHttpClientConnectionManager googleConnectionManager) {
+        HttpClientBuilder clientBuilder = ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setConnectionManager(googleConnectionManager)
+                .setConnectionManagerShared(true)
+                .setKeepAliveStrategy((response, context) -> keepAlive.toMillis())
+                .evictIdleConnections(keepAlive.toMillis(), TimeUnit.MILLISECONDS)
+                .evictExpiredConnections();
+        if (!gzip) {
+            clientBuilder.disableContentCompression();
+        }
+        return new ApacheHttpTransport(clientBuilder.build());
+    }
+}
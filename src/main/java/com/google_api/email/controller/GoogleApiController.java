@@ -1,69 +1,310 @@
 package com.google_api.email.controller;
 
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.BulkEventResultDto;
+import com.google_api.email.dto.BulkReplyResultDto;
 import com.google_api.email.dto.CalendarEventDto;
 import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.LabelJobDto;
+import com.google_api.email.dto.MailSearchDto;
+import com.google_api.email.dto.MailboxSyncDto;
+import com.google_api.email.dto.OutboxOperationDto;
 import com.google_api.email.dto.ReplyEmailDto;
+import com.google_api.email.dto.SlotCheckDto;
+import com.google_api.email.dto.TimeSlotDto;
+import com.google_api.email.dto.TransportStatsDto;
+import com.google_api.email.dto.UnreadEmailCursorDto;
 import com.google_api.email.service.CalenderService;
+import com.google_api.email.service.ChangeWatcher;
+import com.google_api.email.service.EventConflictException;
 import com.google_api.email.service.GMailConnectorService;
+import com.google_api.email.service.GmailContentCache;
+import com.google_api.email.service.GoogleApiScheduler;
+import com.google_api.email.service.GoogleCallExecutor;
+import com.google_api.email.service.LabelJobService;
+import com.google_api.email.service.MailOutbox;
+import com.google_api.email.service.MailSearchIndex;
+import com.google_api.email.service.MailboxSyncService;
 import com.google_api.email.service.ReplyService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
 import jakarta.mail.MessagingException;
 import lombok.RequiredArgsConstructor;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Every endpoint is served both under {@code /api/v1} for the default account and under
+ * {@code /api/v1/accounts/{accountId}} for a specific one.
+ */
 @RestController
-@RequestMapping("/api/v1")
+@RequestMapping({"/api/v1", "/api/v1/accounts/{accountId}"})
 @RequiredArgsConstructor
 public class GoogleApiController {
 
     private final GMailConnectorService mailService;
     private final ReplyService replyService;
     private final CalenderService calenderService;
+    private final MailboxSyncService mailboxSyncService;
+    private final LabelJobService labelJobService;
+    private final GmailContentCache contentCache;
+    private final MailSearchIndex mailSearchIndex;
+    private final MailOutbox mailOutbox;
+    private final ChangeWatcher changeWatcher;
+    private final GoogleAccountRegistry accounts;
+    private final ObjectProvider<PoolingHttpClientConnectionManager> googleConnectionManager;
+    private final GoogleCallExecutor callExecutor;
+    private final ObjectMapper objectMapper;
+
+    @Value("${gmail.stream.max-messages:1000}")
+    private int maxStreamedMessages;
+
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final MediaType MESSAGE_RFC822 = MediaType.parseMediaType("message/rfc822");
+    private static final Duration CONTENT_MAX_AGE = Duration.ofDays(30);
 
     @GetMapping("/unread-emails")
-    public List<GmailDto> readAndLabelEmails(@RequestParam LocalDateTime localDateTime) {
+    public CompletableFuture<List<GmailDto>> readAndLabelEmails(@RequestParam LocalDateTime localDateTime) {
             long timestampSeconds = localDateTime
                     .atZone(ZoneId.of("Asia/Kolkata"))
                     .toInstant()
                     .getEpochSecond();
 
-            return mailService.readAndLabelUnreadEmailsFromInbox(timestampSeconds);
+            return callExecutor.submit("unread-emails", () -> mailService.readAndLabelUnreadEmailsFromInbox(timestampSeconds));
+    }
+
+    @GetMapping(value = "/unread-emails/stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> streamUnreadEmails(@RequestParam LocalDateTime localDateTime,
+                                                                    @RequestParam(required = false) String pageToken,
+                                                                    @RequestParam(required = false) Integer limit) {
+        long timestampSeconds = localDateTime
+                .atZone(ZoneId.of("Asia/Kolkata"))
+                .toInstant()
+                .getEpochSecond();
+        int cappedLimit = limit == null ? maxStreamedMessages : Math.max(1, Math.min(limit, maxStreamedMessages));
+
+        // The body is written on another thread, so it takes the account along.
+        String accountId = accounts.current().id();
+        StreamingResponseBody body = outputStream -> AccountContext.callAs(accountId, () -> {
+            AtomicInteger emitted = new AtomicInteger();
+            String nextPageToken;
+            try {
+                nextPageToken = mailService.streamUnreadEmailsFromInbox(timestampSeconds, pageToken, cappedLimit, gmailDto -> {
+                    writeLine(outputStream, gmailDto);
+                    emitted.incrementAndGet();
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writeLine(outputStream, new UnreadEmailCursorDto(nextPageToken, emitted.get()));
+            return null;
+        });
+        return ResponseEntity.ok().contentType(APPLICATION_NDJSON).body(body);
+    }
+
+    private void writeLine(OutputStream outputStream, Object value) {
+        try {
+            outputStream.write(objectMapper.writeValueAsBytes(value));
+            outputStream.write('\n');
+            outputStream.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GetMapping("/search")
+    public MailSearchDto searchEmails(@RequestParam(required = false) String q,
+                                      @RequestParam(required = false) String from,
+                                      @RequestParam(required = false) String to,
+                                      @RequestParam(required = false) String labelId,
+                                      @RequestParam(required = false) LocalDateTime after,
+                                      @RequestParam(required = false) LocalDateTime before,
+                                      @RequestParam(defaultValue = "50") int limit) {
+        return mailSearchIndex.search(accounts.current().id(), q, from, to, labelId, toEpochMillis(after), toEpochMillis(before), Math.max(1, Math.min(limit, 500)));
+    }
+
+    private static Long toEpochMillis(LocalDateTime localDateTime) {
+        return localDateTime != null ? localDateTime.atZone(ZoneId.of("Asia/Kolkata")).toInstant().toEpochMilli() : null;
+    }
+
+    @GetMapping(value = "/watch", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter watchChanges(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        return changeWatcher.subscribe(lastEventId);
+    }
+
+    @GetMapping("/sync-emails")
+    public CompletableFuture<MailboxSyncDto> syncEmails() {
+        return callExecutor.submit("sync-emails", mailboxSyncService::syncInbox);
     }
 
     @PutMapping("/move-mail/{messageId}")
-    public String moveSpamMail(@PathVariable String messageId) {
-        return mailService.moveMessageToSpamWithLabelAndUnread(messageId);
+    public CompletableFuture<ResponseEntity<Object>> moveSpamMail(@PathVariable String messageId,
+                                                                  @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                                  @RequestHeader(value = "Prefer", required = false) String prefer) {
+        return outboxResponse(mailService.submitMoveToSpam(messageId, idempotencyKey), prefer);
     }
 
     @DeleteMapping("/remove-label/{label}/{folderName}")
-    public String removeLabel(@PathVariable String label,@PathVariable String folderName) {
-        return mailService.removeLabelAndMoveToInbox(label, folderName);
+    public ResponseEntity<LabelJobDto> removeLabel(@PathVariable String label,@PathVariable String folderName,
+                                                   @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return ResponseEntity.accepted().body(labelJobService.submitRemoveLabelJob(label, folderName, idempotencyKey));
+    }
+
+    @GetMapping("/label-jobs/{jobId}")
+    public ResponseEntity<LabelJobDto> getLabelJob(@PathVariable String jobId) {
+        LabelJobDto job = labelJobService.getJob(jobId);
+        return job != null ? ResponseEntity.ok(job) : ResponseEntity.notFound().build();
     }
 
     @PostMapping("/reply")
-    public String reply(@RequestBody ReplyEmailDto replyEmailDto){
-        return replyService.replyToEmail(replyEmailDto);
+    public CompletableFuture<ResponseEntity<Object>> reply(@RequestBody ReplyEmailDto replyEmailDto,
+                                                           @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                           @RequestHeader(value = "Prefer", required = false) String prefer) {
+        return outboxResponse(replyService.submitReply(replyEmailDto, idempotencyKey), prefer);
+    }
+
+    @GetMapping("/outbox/{operationId}")
+    public ResponseEntity<OutboxOperationDto> getOutboxOperation(@PathVariable String operationId) {
+        MailOutbox.Operation operation = mailOutbox.get(operationId);
+        return operation != null ? ResponseEntity.ok(operation.toDto()) : ResponseEntity.notFound().build();
+    }
+
+    // The operation is durable once submitted. With "Prefer: respond-async" the caller gets 202 and polls
+    // /outbox/{operationId}; otherwise the response waits for the outcome, as before the outbox existed.
+    private static CompletableFuture<ResponseEntity<Object>> outboxResponse(MailOutbox.Operation operation, String prefer) {
+        if (prefer != null && prefer.toLowerCase(Locale.ROOT).contains("respond-async")) {
+            return CompletableFuture.completedFuture(ResponseEntity.accepted()
+                    .header("Preference-Applied", "respond-async")
+                    .<Object>body(operation.toDto()));
+        }
+        return operation.outcome().thenApply(ResponseEntity::<Object>ok);
+    }
+
+    @PostMapping(value = "/reply/with-attachments", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<String> replyWithAttachments(@RequestPart("reply") ReplyEmailDto replyEmailDto,
+                                                         @RequestPart(value = "attachments", required = false) List<MultipartFile> attachments) {
+        List<MultipartFile> files = attachments != null ? attachments : List.of();
+        return callExecutor.submit("reply", () -> replyService.replyToEmail(replyEmailDto, files));
+    }
+
+    @PostMapping("/reply/bulk")
+    public CompletableFuture<List<BulkReplyResultDto>> replyBulk(@RequestBody List<ReplyEmailDto> replyEmailDtos) {
+        return callExecutor.submit("reply-bulk", () -> replyService.replyToEmails(replyEmailDtos));
     }
 
     @GetMapping("/get-events")
-    public List<CalendarEventDto> getAllEvents() {
-        return calenderService.getAllEventDetails();
+    public CompletableFuture<List<CalendarEventDto>> getAllEvents(@RequestParam(required = false) LocalDateTime timeMin,
+                                                                  @RequestParam(required = false) LocalDateTime timeMax) {
+        if (timeMin == null && timeMax == null) {
+            return callExecutor.submit("get-events", calenderService::getAllEventDetails);
+        }
+        LocalDateTime from = timeMin != null ? timeMin : LocalDateTime.now();
+        LocalDateTime to = timeMax != null ? timeMax : from.plusWeeks(1);
+        return callExecutor.submit("get-events", () -> calenderService.getEventDetails(from, to));
     }
 
     @PostMapping("/add-event")
-    public String addEvent(@RequestBody CalendarEventDto calendarEventDto) {
-        return calenderService.addEvent(calendarEventDto);
+    public CompletableFuture<String> addEvent(@RequestBody CalendarEventDto calendarEventDto,
+                                              @RequestParam(required = false) Boolean rejectOnConflict) {
+        return callExecutor.submit("add-event", () -> {
+            try {
+                return rejectOnConflict == null
+                        ? calenderService.addEvent(calendarEventDto)
+                        : calenderService.addEvent(calendarEventDto, rejectOnConflict);
+            } catch (EventConflictException e) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage(), e);
+            }
+        });
+    }
+
+    @PostMapping("/add-events")
+    public CompletableFuture<List<BulkEventResultDto>> addEvents(@RequestBody List<CalendarEventDto> calendarEventDtos,
+                                                                 @RequestParam(defaultValue = "false") boolean rejectOnConflict) {
+        return callExecutor.submit("add-events", () -> calenderService.addEvents(calendarEventDtos, rejectOnConflict));
+    }
+
+    @PostMapping("/calendar/check-slots")
+    public CompletableFuture<List<SlotCheckDto>> checkSlots(@RequestBody List<TimeSlotDto> slots) {
+        return callExecutor.submit("calendar-slots", () -> calenderService.checkSlots(slots));
+    }
+
+    @GetMapping("/calendar/free-slots")
+    public CompletableFuture<List<TimeSlotDto>> findFreeSlots(@RequestParam LocalDateTime timeMin,
+                                                              @RequestParam LocalDateTime timeMax,
+                                                              @RequestParam long durationMinutes) {
+        return callExecutor.submit("calendar-slots", () -> calenderService.findFreeSlots(timeMin, timeMax, durationMinutes));
+    }
+
+    @GetMapping("/messages/{messageId}/attachments/{attachmentId}")
+    public CompletableFuture<ResponseEntity<Resource>> getAttachment(@PathVariable String messageId, @PathVariable String attachmentId) {
+        return callExecutor.submit("content", () -> content(MediaType.APPLICATION_OCTET_STREAM,
+                () -> contentCache.attachment(messageId, attachmentId)));
+    }
+
+    @GetMapping("/messages/{messageId}/raw")
+    public CompletableFuture<ResponseEntity<Resource>> getRawMessage(@PathVariable String messageId) {
+        return callExecutor.submit("content", () -> content(MESSAGE_RFC822, () -> contentCache.rawMessage(messageId)));
+    }
+
+    // Blobs are named by their SHA-256, so the name is a strong ETag and the content never changes under it.
+    // If-None-Match is answered with 304 and Range requests with 206 by Spring MVC.
+    private ResponseEntity<Resource> content(MediaType mediaType, GoogleApiScheduler.GoogleCall<Path> blob) {
+        try {
+            Path path = blob.call();
+            return ResponseEntity.ok()
+                    .contentType(mediaType)
+                    .eTag(path.getFileName().toString())
+                    .cacheControl(CacheControl.maxAge(CONTENT_MAX_AGE).cachePrivate().immutable())
+                    .body(new FileSystemResource(path));
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() == 404) {
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Message or attachment not found");
+            }
+            throw new UncheckedIOException(e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GetMapping("/transport-stats")
+    public TransportStatsDto getTransportStats() {
+        PoolStats stats = googleConnectionManager.getObject().getTotalStats();
+        return new TransportStatsDto(stats.getLeased(), stats.getPending(), stats.getAvailable(), stats.getMax());
     }
 
 }
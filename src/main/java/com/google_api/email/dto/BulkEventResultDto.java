@@ -0,0 +1,3 @@
+package com.google_api.email.dto;
+
+public record BulkEventResultDto(int index, String eventId, String error) { }
@@ -0,0 +1,3 @@
+package com.google_api.email.dto;
+
+public record BulkReplyResultDto(int index, String originalMessageId, String sentMessageId, String error) { }
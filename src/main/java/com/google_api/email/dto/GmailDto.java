@@ -1,7 +1,10 @@
 package com.google_api.email.dto;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public record GmailDto(
         String messageId,
@@ -9,5 +12,16 @@ public record GmailDto(
         String from,
         List<String> recipients,
         OffsetDateTime receivedAt,
-        String snippet
-) {}
+        String snippet,
+        List<String> labelIds
+) {
+
+    /**
+     * This message after a label change; {@code this} if the change is a no-op.
+     */
+    public GmailDto withLabels(Collection<String> addLabelIds, Collection<String> removeLabelIds) {
+        Set<String> labels = new LinkedHashSet<>(labelIds != null ? labelIds : List.of());
+        boolean changed = labels.removeAll(removeLabelIds) | labels.addAll(addLabelIds);
+        return changed ? new GmailDto(messageId, subject, from, recipients, receivedAt, snippet, List.copyOf(labels)) : this;
+    }
+}
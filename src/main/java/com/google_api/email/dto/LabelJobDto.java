@@ -0,0 +1,11 @@
+package com.google_api.email.dto;
+
+public record LabelJobDto(
+        String jobId,
+        String status,
+        String labelName,
+        String folderName,
+        int totalMessages,
+        int processedMessages,
+        String message
+) {}
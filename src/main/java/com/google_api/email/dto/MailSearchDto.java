@@ -0,0 +1,5 @@
+package com.google_api.email.dto;
+
+import java.util.List;
+
+public record MailSearchDto(int totalMatches, List<GmailDto> messages) { }
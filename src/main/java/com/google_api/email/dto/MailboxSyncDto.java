@@ -0,0 +1,9 @@
+package com.google_api.email.dto;
+
+import java.util.List;
+
+public record MailboxSyncDto(
+        boolean fullResync,
+        String historyId,
+        List<GmailDto> messages
+) {}
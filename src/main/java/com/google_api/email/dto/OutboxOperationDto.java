@@ -0,0 +1,10 @@
+package com.google_api.email.dto;
+
+public record OutboxOperationDto(
+        String operationId,
+        String kind,
+        String status,
+        int attempts,
+        String result,
+        String error
+) {}
@@ -0,0 +1,10 @@
+package com.google_api.email.dto;
+
+import java.util.List;
+
+public record SlotCheckDto(
+        String startDateTime,
+        String endDateTime,
+        boolean free,
+        List<String> conflictingEventIds
+) {}
@@ -0,0 +1,8 @@
+package com.google_api.email.dto;
+
+public record TransportStatsDto(
+        int leased,
+        int pending,
+        int available,
+        int max
+) {}
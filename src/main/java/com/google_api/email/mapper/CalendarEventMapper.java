@@ -0,0 +1,45 @@
+package com.google_api.email.mapper;
+
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventAttendee;
+import com.google_api.email.dto.CalendarEventDto;
+import org.springframework.stereotype.Component;
+
+@Component
+public class CalendarEventMapper {
+
+    public static final String EVENT_FIELDS =
+            "id,status,transparency,summary,description,location,hangoutLink,htmlLink,organizer/email,attendees/email,start,end";
+
+    public CalendarEventDto eventToDto(Event event) {
+        String startStr = null;
+        String endStr = null;
+        Long meetingDurationMinutes = null;
+        if (event.getStart() != null && event.getEnd() != null) {
+            com.google.api.client.util.DateTime startDt = event.getStart().getDateTime();
+            com.google.api.client.util.DateTime endDt = event.getEnd().getDateTime();
+            if (startDt != null && endDt != null) {
+                startStr = startDt.toStringRfc3339();
+                endStr = endDt.toStringRfc3339();
+                meetingDurationMinutes = (endDt.getValue() - startDt.getValue()) / (1000 * 60);
+            } else if (event.getStart().getDate() != null && event.getEnd().getDate() != null) {
+                startStr = event.getStart().getDate().toStringRfc3339();
+                endStr = event.getEnd().getDate().toStringRfc3339();
+                meetingDurationMinutes = 24L * 60;
+            }
+        }
+
+        return CalendarEventDto.builder()
+                .eventId(event.getId())
+                .summary(event.getSummary())
+                .description(event.getDescription())
+                .location(event.getLocation())
+                .meetingLink(event.getHangoutLink())
+                .organizerEmail(event.getOrganizer() != null ? event.getOrganizer().getEmail() : null)
+                .attendees(event.getAttendees() != null ? event.getAttendees().stream().map(EventAttendee::getEmail).toList() : null)
+                .startDateTime(startStr != null ? startStr : (event.getStart() != null ? (event.getStart().getDateTime() != null ? event.getStart().getDateTime().toString() : event.getStart().getDate() != null ? event.getStart().getDate().toString() : null) : null))
+                .endDateTime(endStr != null ? endStr : (event.getEnd() != null ? (event.getEnd().getDateTime() != null ? event.getEnd().getDateTime().toString() : event.getEnd().getDate() != null ? event.getEnd().getDate().toString() : null) : null))
+                .meetingDurationMinutes(meetingDurationMinutes)
+                .build();
+    }
+}
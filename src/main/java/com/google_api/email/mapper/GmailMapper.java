@@ -2,65 +2,81 @@ package com.google_api.email.mapper;
 
 import com.google_api.email.dto.GmailDto;
 import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
 import com.google.api.services.gmail.model.MessagePartHeader;
 import org.springframework.stereotype.Component;
+import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.Date;
-import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
 
 @Component
 public class GmailMapper {
 
-    public GmailDto messageToDto(Message fullMessage) {
+    public static final MessageProjection PROJECTION = new MessageProjection(
+            List.of("Subject", "From", "To"),
+            "id,threadId,labelIds,snippet,internalDate,payload/headers");
 
-        Map<String, String> headers = extractHeaders(fullMessage);
+    private static final ZoneId ZONE = ZoneId.of("Asia/Kolkata");
 
-        String subject = headers.getOrDefault("Subject", "(no subject)");
-        String from = headers.getOrDefault("From", "(unknown)");
-        List<String> recipients = new ArrayList<>();
-        if (headers.containsKey("To")) {
-            recipients.addAll(Arrays.asList(headers.get("To").split(",")));
+    public GmailDto messageToDto(Message fullMessage) {
+        // Single pass over the headers; like the old header map, the first occurrence of a name wins.
+        String subject = null;
+        String from = null;
+        String to = null;
+        MessagePart payload = fullMessage.getPayload();
+        if (payload != null && payload.getHeaders() != null) {
+            for (MessagePartHeader header : payload.getHeaders()) {
+                String name = header.getName();
+                if (subject == null && "Subject".equals(name)) {
+                    subject = header.getValue();
+                } else if (from == null && "From".equals(name)) {
+                    from = header.getValue();
+                } else if (to == null && "To".equals(name)) {
+                    to = header.getValue();
+                }
+            }
         }
 
+        List<String> recipients = to != null ? splitRecipients(to) : new ArrayList<>();
+
         OffsetDateTime receivedAt = null;
         if (fullMessage.getInternalDate() != null) {
-            receivedAt = OffsetDateTime.ofInstant(
-                    new Date(fullMessage.getInternalDate()).toInstant(),
-                    ZoneId.of("Asia/Kolkata")
-            );
+            receivedAt = OffsetDateTime.ofInstant(Instant.ofEpochMilli(fullMessage.getInternalDate()), ZONE);
         }
 
-        String snippet = fullMessage.getSnippet();
-
         return new GmailDto(
                 fullMessage.getId(),
-                subject,
-                from,
+                subject != null ? subject : "(no subject)",
+                from != null ? from : "(unknown)",
                 recipients,
                 receivedAt,
-                snippet
+                fullMessage.getSnippet(),
+                fullMessage.getLabelIds() != null ? fullMessage.getLabelIds() : List.of()
         );
     }
 
-    private Map<String, String> extractHeaders(Message message) {
-        if (message.getPayload() == null || message.getPayload().getHeaders() == null) {
-            return Collections.emptyMap();
+    /**
+     * Same result as {@code Arrays.asList(to.split(","))}: no trimming, trailing empty entries dropped,
+     * but without the intermediate array.
+     */
+    static List<String> splitRecipients(String to) {
+        List<String> recipients = new ArrayList<>(4);
+        int start = 0;
+        int comma;
+        while ((comma = to.indexOf(',', start)) >= 0) {
+            recipients.add(to.substring(start, comma));
+            start = comma + 1;
+        }
+        recipients.add(to.substring(start));
+        if (to.isEmpty()) {
+            return recipients;
+        }
+        int size = recipients.size();
+        while (size > 0 && recipients.get(size - 1).isEmpty()) {
+            recipients.remove(--size);
         }
-        return message.getPayload()
-                .getHeaders()
-                .stream()
-                .collect(Collectors.toMap(
-                        MessagePartHeader::getName,
-                        MessagePartHeader::getValue,
-                        (oldValue, newValue) -> oldValue,
-                        LinkedHashMap::new
-                ));
+        return recipients;
     }
 }
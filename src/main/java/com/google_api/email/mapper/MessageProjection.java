@@ -0,0 +1,19 @@
+package com.google_api.email.mapper;
+
+import com.google.api.services.gmail.Gmail;
+import java.util.List;
+
+/**
+ * Partial-response projection for messages.get: {@code format=metadata} with only the headers a
+ * consumer reads, plus a {@code fields} mask so Gmail omits everything else.
+ */
+public record MessageProjection(List<String> headers, String fields) {
+
+    public static final String LIST_FIELDS = "messages/id,nextPageToken";
+
+    public Gmail.Users.Messages.Get apply(Gmail.Users.Messages.Get request) {
+        return request.setFormat("metadata")
+                .setMetadataHeaders(headers)
+                .setFields(fields);
+    }
+}
@@ -0,0 +1,333 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.mapper.CalendarEventMapper;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Local copy of each account's calendar. The first read for an account does a full sync of
+ * {@code [now - calendar.sync.lookback, now + calendar.sync.horizon)}; afterwards the store is refreshed in the
+ * background with the Calendar sync token once it is older than {@code calendar.sync.refresh-interval}. A 410
+ * GONE on the sync token triggers a new full sync. Syncs are single-flight per account and run outside any
+ * lock. Events that leave the covered range are dropped, and windows outside it are queried live. Window
+ * reads are answered from an immutable, start-sorted snapshot, and free/busy questions from the
+ * {@link EventIntervalIndex} built with it.
+ */
+@Component
+@RequiredArgsConstructor
+public class CalendarEventStore {
+
+    private static final String LIST_FIELDS = "items(" + CalendarEventMapper.EVENT_FIELDS + "),nextPageToken,nextSyncToken";
+
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+    private final GoogleCallExecutor callExecutor;
+    private final CalendarEventMapper calendarEventMapper;
+
+    @Value("${calendar.sync.lookback:P30D}")
+    private Duration lookback;
+
+    @Value("${calendar.sync.refresh-interval:PT30S}")
+    private Duration refreshInterval;
+
+    @Value("${calendar.sync.horizon:P365D}")
+    private Duration horizon;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(CalendarEventStore.class);
+
+    private final Map<String, AccountCalendar> calendars = new ConcurrentHashMap<>();
+
+    public List<CalendarEventDto> getEvents(long timeMinMillis, long timeMaxMillis) throws IOException {
+        Snapshot current = snapshotFor(timeMinMillis, timeMaxMillis);
+        List<CalendarEventDto> eventDtos = new ArrayList<>();
+        for (int i = current.firstCandidate(timeMinMillis); i < current.events.size(); i++) {
+            StoredEvent event = current.events.get(i);
+            if (event.startMillis >= timeMaxMillis) {
+                break;
+            }
+            if (event.endMillis > timeMinMillis) {
+                eventDtos.add(event.dto);
+            }
+        }
+        return eventDtos;
+    }
+
+    /**
+     * Ids of busy (non-transparent) events overlapping [startMillis, endMillis).
+     */
+    public List<String> findConflicts(long startMillis, long endMillis) throws IOException {
+        return snapshotFor(startMillis, endMillis).busyIndex.overlapping(startMillis, endMillis);
+    }
+
+    /**
+     * Merged busy intervals inside [timeMinMillis, timeMaxMillis) as {@code [start, end]} pairs.
+     */
+    public List<long[]> findBusy(long timeMinMillis, long timeMaxMillis) throws IOException {
+        return snapshotFor(timeMinMillis, timeMaxMillis).busyIndex.busy(timeMinMillis, timeMaxMillis);
+    }
+
+    /**
+     * Applies an event this service just wrote so reads see it before the next sync. A sync already in flight
+     * re-applies it when it installs its result.
+     */
+    public void upsert(Event event) {
+        AccountCalendar calendar = calendar();
+        calendar.lock.lock();
+        try {
+            calendar.upserts.add(new Upsert(event, System.nanoTime()));
+            Snapshot snapshot = calendar.snapshot;
+            if (snapshot != null) {
+                calendar.snapshot = snapshot.with(List.of(event), this::apply);
+            }
+        } finally {
+            calendar.lock.unlock();
+        }
+    }
+
+    private AccountCalendar calendar() {
+        GoogleAccount account = accounts.current();
+        return calendars.computeIfAbsent(account.id(), id -> new AccountCalendar(account));
+    }
+
+    // The local copy only covers [now - lookback, last full sync + horizon); other windows are queried live.
+    private Snapshot snapshotFor(long timeMinMillis, long timeMaxMillis) throws IOException {
+        AccountCalendar calendar = calendar();
+        Snapshot current = calendar.snapshot;
+        if (current == null) {
+            current = sync(calendar);
+        } else if (System.nanoTime() - current.syncedAtNanos > refreshInterval.toNanos() && calendar.sync.get() == null) {
+            callExecutor.executor().execute(() -> {
+                try {
+                    AccountContext.callAs(calendar.account.id(), () -> sync(calendar));
+                } catch (IOException | RuntimeException e) {
+                    logger.error(AGENT_EMOJI +"AGENT_CALENDAR_SYNC - Background refresh for {} failed: {}", calendar.account.id(), e.getMessage());
+                }
+            });
+        }
+        if (timeMinMillis >= current.coveredFromMillis && timeMaxMillis <= current.coveredToMillis) {
+            return current;
+        }
+        return liveQuery(calendar.account, timeMinMillis, timeMaxMillis);
+    }
+
+    // Single-flight per account; the fetch runs without holding any lock, only installing the result does.
+    private Snapshot sync(AccountCalendar calendar) throws IOException {
+        CompletableFuture<Snapshot> created = new CompletableFuture<>();
+        CompletableFuture<Snapshot> inFlight = calendar.sync.compareAndExchange(null, created);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            long startedNanos = System.nanoTime();
+            Snapshot synced = fetch(calendar.account, calendar.snapshot);
+            calendar.lock.lock();
+            try {
+                // Writes made while the sync was running may not be in its result yet.
+                calendar.upserts.removeIf(upsert -> upsert.atNanos < startedNanos);
+                calendar.snapshot = synced.with(calendar.upserts.stream().map(Upsert::event).toList(), this::apply);
+            } finally {
+                calendar.lock.unlock();
+            }
+            created.complete(calendar.snapshot);
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+        } finally {
+            calendar.sync.set(null);
+        }
+        return await(created);
+    }
+
+    private Snapshot fetch(GoogleAccount account, Snapshot current) throws IOException {
+        if (current == null || current.syncToken == null) {
+            return fullSync(account);
+        }
+        try {
+            return incrementalSync(account, current);
+        } catch (GoogleJsonResponseException e) {
+            if (e.getStatusCode() != 410) {
+                throw e;
+            }
+            logger.info(AGENT_EMOJI +"AGENT_CALENDAR_SYNC - Sync token for {} expired, running full sync", account.id());
+            return fullSync(account);
+        }
+    }
+
+    // Bounded by calendar.sync.horizon so recurring events without an end are not expanded forever.
+    private Snapshot fullSync(GoogleAccount account) throws IOException {
+        Map<String, StoredEvent> byId = new HashMap<>();
+        long nowMillis = System.currentTimeMillis();
+        long coveredFromMillis = nowMillis - lookback.toMillis();
+        long coveredToMillis = nowMillis + horizon.toMillis();
+        String syncToken = page(account, byId, request -> request
+                .setTimeMin(new DateTime(coveredFromMillis))
+                .setTimeMax(new DateTime(coveredToMillis)));
+        logger.info(AGENT_EMOJI +"AGENT_CALENDAR_SYNC - Full sync loaded {} events for {}", byId.size(), account.id());
+        return Snapshot.of(byId, syncToken, System.nanoTime(), coveredFromMillis, coveredToMillis);
+    }
+
+    // The covered range slides forward with the lookback; events that fall out of it are dropped.
+    private Snapshot incrementalSync(GoogleAccount account, Snapshot current) throws IOException {
+        Map<String, StoredEvent> byId = new HashMap<>(current.byId);
+        String syncToken = page(account, byId, request -> request.setSyncToken(current.syncToken));
+        return Snapshot.of(byId, syncToken, System.nanoTime(),
+                System.currentTimeMillis() - lookback.toMillis(), current.coveredToMillis);
+    }
+
+    private Snapshot liveQuery(GoogleAccount account, long timeMinMillis, long timeMaxMillis) throws IOException {
+        Map<String, StoredEvent> byId = new HashMap<>();
+        page(account, byId, request -> request
+                .setTimeMin(new DateTime(timeMinMillis))
+                .setTimeMax(new DateTime(timeMaxMillis)));
+        return Snapshot.of(byId, null, System.nanoTime(), timeMinMillis, timeMaxMillis);
+    }
+
+    private String page(GoogleAccount account, Map<String, StoredEvent> byId, ListCustomizer customizer) throws IOException {
+        String pageToken = null;
+        Events events;
+        do {
+            Calendar.Events.List request = account.calendar().events().list(account.email())
+                    .setSingleEvents(true)
+                    .setPageToken(pageToken)
+                    .setFields(LIST_FIELDS);
+            events = apiScheduler.execute(GoogleApiMethod.CALENDAR_EVENTS_LIST, CallPriority.NORMAL, customizer.customize(request));
+            if (events.getItems() != null) {
+                for (Event event : events.getItems()) {
+                    apply(byId, event);
+                }
+            }
+            pageToken = events.getNextPageToken();
+        } while (pageToken != null);
+        return events.getNextSyncToken();
+    }
+
+    private void apply(Map<String, StoredEvent> byId, Event event) {
+        if ("cancelled".equals(event.getStatus())) {
+            byId.remove(event.getId());
+            return;
+        }
+        long startMillis = toMillis(event.getStart());
+        long endMillis = toMillis(event.getEnd());
+        if (startMillis == Long.MIN_VALUE || endMillis == Long.MIN_VALUE) {
+            return;
+        }
+        boolean busy = !"transparent".equals(event.getTransparency());
+        byId.put(event.getId(), new StoredEvent(event.getId(), startMillis, endMillis, busy, calendarEventMapper.eventToDto(event)));
+    }
+
+    private static long toMillis(EventDateTime eventDateTime) {
+        if (eventDateTime == null) {
+            return Long.MIN_VALUE;
+        }
+        if (eventDateTime.getDateTime() != null) {
+            return eventDateTime.getDateTime().getValue();
+        }
+        return eventDateTime.getDate() != null ? eventDateTime.getDate().getValue() : Long.MIN_VALUE;
+    }
+
+    @FunctionalInterface
+    private interface ListCustomizer {
+        Calendar.Events.List customize(Calendar.Events.List request);
+    }
+
+    private static Snapshot await(CompletableFuture<Snapshot> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+    }
+
+    private static final class AccountCalendar {
+        private final GoogleAccount account;
+        private final AtomicReference<CompletableFuture<Snapshot>> sync = new AtomicReference<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<Upsert> upserts = new ArrayList<>();
+        private volatile Snapshot snapshot;
+
+        private AccountCalendar(GoogleAccount account) {
+            this.account = account;
+        }
+    }
+
+    private record Upsert(Event event, long atNanos) { }
+
+    private record StoredEvent(String id, long startMillis, long endMillis, boolean busy, CalendarEventDto dto) { }
+
+    private record Snapshot(List<StoredEvent> events, Map<String, StoredEvent> byId, String syncToken,
+                            long maxDurationMillis, EventIntervalIndex busyIndex, long syncedAtNanos,
+                            long coveredFromMillis, long coveredToMillis) {
+
+        static Snapshot of(Map<String, StoredEvent> byId, String syncToken, long syncedAtNanos,
+                           long coveredFromMillis, long coveredToMillis) {
+            byId.values().removeIf(event -> event.endMillis <= coveredFromMillis || event.startMillis >= coveredToMillis);
+            List<StoredEvent> events = new ArrayList<>(byId.values());
+            events.sort(Comparator.comparingLong(StoredEvent::startMillis));
+            long maxDurationMillis = 0;
+            List<long[]> busyIntervals = new ArrayList<>();
+            List<String> busyIds = new ArrayList<>();
+            for (StoredEvent event : events) {
+                maxDurationMillis = Math.max(maxDurationMillis, event.endMillis - event.startMillis);
+                if (event.busy) {
+                    busyIntervals.add(new long[]{event.startMillis, event.endMillis});
+                    busyIds.add(event.id);
+                }
+            }
+            return new Snapshot(List.copyOf(events), Map.copyOf(byId), syncToken, maxDurationMillis,
+                    new EventIntervalIndex(busyIntervals, busyIds), syncedAtNanos, coveredFromMillis, coveredToMillis);
+        }
+
+        Snapshot with(List<Event> written, BiConsumer<Map<String, StoredEvent>, Event> apply) {
+            if (written.isEmpty()) {
+                return this;
+            }
+            Map<String, StoredEvent> updated = new HashMap<>(byId);
+            written.forEach(event -> apply.accept(updated, event));
+            return of(updated, syncToken, syncedAtNanos, coveredFromMillis, coveredToMillis);
+        }
+
+        // No event starting before timeMin - maxDuration can still be running at timeMin.
+        int firstCandidate(long timeMinMillis) {
+            long from = timeMinMillis - maxDurationMillis;
+            int low = 0;
+            int high = events.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (events.get(mid).startMillis < from) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
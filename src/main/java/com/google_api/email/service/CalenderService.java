@@ -1,20 +1,32 @@
 package com.google_api.email.service;
 
-import com.google.api.client.util.DateTime;
-import com.google.api.services.calendar.Calendar;
-import com.google.api.services.calendar.model.Events;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.EventDateTime;
 import com.google.api.services.calendar.model.EventAttendee;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.BulkEventResultDto;
 import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.dto.SlotCheckDto;
+import com.google_api.email.dto.TimeSlotDto;
+import com.google_api.email.mapper.CalendarEventMapper;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import java.io.IOException;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import static com.google_api.shared.Constant.AGENT_EMOJI;
@@ -23,73 +35,196 @@ import static com.google_api.shared.Constant.AGENT_EMOJI;
 @RequiredArgsConstructor
 public class CalenderService {
 
-    private final Calendar calendarService;
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+    private final CalendarEventStore calendarEventStore;
 
-    @Value("${gmail.user.email}")
-    private String userEmail;
+    @Value("${calendar.add-event.reject-on-conflict:false}")
+    private boolean rejectOnConflict;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GMailConnectorService.class);
 
+    private static final int EVENT_BATCH_SIZE = 50;
+
     public String addEvent(CalendarEventDto calendarEventDto) {
+        return addEvent(calendarEventDto, rejectOnConflict);
+    }
+
+    /**
+     * Returns the new event id, or null if Google did not create it.
+     *
+     * @throws EventConflictException if {@code rejectOnConflict} is set and the event overlaps existing ones
+     */
+    public String addEvent(CalendarEventDto calendarEventDto, boolean rejectOnConflict) {
+        GoogleAccount account = accounts.current();
         try {
-            Event event = new Event();
-            event.setSummary(calendarEventDto.getSummary());
-            event.setDescription(calendarEventDto.getDescription());
-            event.setLocation(calendarEventDto.getLocation());
-
-            if (calendarEventDto.getAttendees() != null && !calendarEventDto.getAttendees().isEmpty()) {
-                List<EventAttendee> attendees = calendarEventDto.getAttendees().stream()
-                        .map(email -> new EventAttendee().setEmail(email))
-                        .collect(Collectors.toList());
-                event.setAttendees(attendees);
+            Event event = toEvent(calendarEventDto);
+            if (rejectOnConflict) {
+                List<String> conflicts = findConflicts(event);
+                if (!conflicts.isEmpty()) {
+                    logger.warn(AGENT_EMOJI +"AGENT_ADD_EVENT - Rejected event overlapping {}", conflicts);
+                    throw new EventConflictException(conflicts);
+                }
+            }
+            Event created = apiScheduler.execute(GoogleApiMethod.CALENDAR_EVENTS_INSERT, CallPriority.NORMAL, account.calendar().events().insert(account.email(), event).setFields(CalendarEventMapper.EVENT_FIELDS));
+            calendarEventStore.upsert(created);
+            logger.info(AGENT_EMOJI +"AGENT_ADD_EVENT - Created calendar event id={} htmlLink={}", created.getId(), created.getHtmlLink());
+            return created.getId();
+        } catch (EventConflictException e) {
+            throw e;
+        } catch (Exception e) {
+            logger.error(AGENT_EMOJI +"AGENT_ADD_EVENT -Failed to create calendar event: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public List<BulkEventResultDto> addEvents(List<CalendarEventDto> calendarEventDtos, boolean rejectOnConflict) {
+        BulkEventResultDto[] results = new BulkEventResultDto[calendarEventDtos.size()];
+        List<Integer> valid = new ArrayList<>();
+        Event[] events = new Event[calendarEventDtos.size()];
+
+        for (int i = 0; i < calendarEventDtos.size(); i++) {
+            try {
+                events[i] = toEvent(calendarEventDtos.get(i));
+                if (rejectOnConflict) {
+                    List<String> conflicts = findConflicts(events[i]);
+                    if (!conflicts.isEmpty()) {
+                        results[i] = new BulkEventResultDto(i, null, "Overlaps existing events " + conflicts);
+                        continue;
+                    }
+                    // The store does not know about this batch yet, so check against the items already accepted.
+                    List<Integer> overlapping = overlappingInBatch(events, valid, events[i]);
+                    if (!overlapping.isEmpty()) {
+                        results[i] = new BulkEventResultDto(i, null, "Overlaps events earlier in this batch " + overlapping);
+                        continue;
+                    }
+                }
+                valid.add(i);
+            } catch (IllegalArgumentException | IOException e) {
+                results[i] = new BulkEventResultDto(i, null, e.getMessage());
+            }
+        }
+
+        for (int from = 0; from < valid.size(); from += EVENT_BATCH_SIZE) {
+            List<Integer> chunk = valid.subList(from, Math.min(from + EVENT_BATCH_SIZE, valid.size()));
+            try {
+                insertChunk(accounts.current(), chunk, events, results);
+            } catch (IOException e) {
+                logger.error(AGENT_EMOJI +"AGENT_ADD_EVENT - Batch insert of {} events failed: {}", chunk.size(), e.getMessage());
+                for (int index : chunk) {
+                    if (results[index] == null) {
+                        results[index] = new BulkEventResultDto(index, null, e.getMessage());
+                    }
+                }
             }
-            String startStr = calendarEventDto.getStartDateTime();
-            String endStr = calendarEventDto.getEndDateTime();
-            Long durationMinutes = calendarEventDto.getMeetingDurationMinutes();
+        }
 
-            if ((startStr == null || startStr.isEmpty())) {
-                throw new IllegalArgumentException("startDateTime is required");
+        logger.info(AGENT_EMOJI +"AGENT_ADD_EVENT - Bulk insert finished for {} events", results.length);
+        return Arrays.asList(results);
+    }
+
+    private void insertChunk(GoogleAccount account, List<Integer> chunk, Event[] events, BulkEventResultDto[] results) throws IOException {
+        List<Integer> pending = chunk;
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                apiScheduler.backoff(attempt - 1);
             }
+            int currentAttempt = attempt;
+            List<Integer> retry = new ArrayList<>();
 
-            com.google.api.client.util.DateTime startDt = toDateTime(startStr);
-            com.google.api.client.util.DateTime endDt;
+            BatchRequest batch = account.calendar().batch();
+            for (int index : pending) {
+                account.calendar().events().insert(account.email(), events[index]).setFields(CalendarEventMapper.EVENT_FIELDS).queue(batch, new JsonBatchCallback<Event>() {
+                    @Override
+                    public void onSuccess(Event created, HttpHeaders responseHeaders) {
+                        calendarEventStore.upsert(created);
+                        results[index] = new BulkEventResultDto(index, created.getId(), null);
+                    }
 
-            if (endStr != null && !endStr.isEmpty()) {
-                endDt = toDateTime(endStr);
-            } else if (durationMinutes != null) {
-                long endMillis = startDt.getValue() + (durationMinutes * 60L * 1000L);
-                endDt = new com.google.api.client.util.DateTime(endMillis);
-            } else {
-                throw new IllegalArgumentException("Either endDateTime or meetingDurationMinutes must be provided");
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                        if (apiScheduler.shouldRetry(GoogleApiMethod.CALENDAR_EVENTS_INSERT, error, currentAttempt)) {
+                            retry.add(index);
+                        } else {
+                            results[index] = new BulkEventResultDto(index, null, error.getMessage());
+                        }
+                    }
+                });
             }
+            apiScheduler.executeBatch(GoogleApiMethod.CALENDAR_EVENTS_INSERT, CallPriority.BULK, batch, attempt);
+            pending = retry;
+        }
+    }
 
-            EventDateTime start = new EventDateTime();
-            EventDateTime end = new EventDateTime();
-            start.setDateTime(startDt);
-            end.setDateTime(endDt);
-            event.setStart(start);
-            event.setEnd(end);
-
-            String meetingLink = calendarEventDto.getMeetingLink();
-            if (meetingLink != null && !meetingLink.isEmpty()) {
-                String existingDesc = event.getDescription();
-                String joinText = "Join meeting: " + meetingLink;
-                if (existingDesc == null || existingDesc.isEmpty()) {
-                    event.setDescription(joinText);
-                } else if (!existingDesc.contains(meetingLink)) {
-                    event.setDescription(existingDesc + "\n\n" + joinText);
-                }
-                event.setLocation(meetingLink);
+    private static List<Integer> overlappingInBatch(Event[] events, List<Integer> accepted, Event event) {
+        long startMillis = event.getStart().getDateTime().getValue();
+        long endMillis = event.getEnd().getDateTime().getValue();
+        List<Integer> overlapping = new ArrayList<>();
+        for (int index : accepted) {
+            if (events[index].getStart().getDateTime().getValue() < endMillis
+                    && events[index].getEnd().getDateTime().getValue() > startMillis) {
+                overlapping.add(index);
             }
-            Event created = calendarService.events().insert(userEmail, event).execute();
-            logger.info(AGENT_EMOJI +"AGENT_ADD_EVENT - Created calendar event id={} htmlLink={}", created.getId(), created.getHtmlLink());
-            return created.getId();
-        } catch (Exception e) {
-            logger.error(AGENT_EMOJI +"AGENT_ADD_EVENT -Failed to create calendar event: {}", e.getMessage(), e);
-            return null;
         }
+        return overlapping;
     }
 
+    private List<String> findConflicts(Event event) throws IOException {
+        return calendarEventStore.findConflicts(event.getStart().getDateTime().getValue(), event.getEnd().getDateTime().getValue());
+    }
+
+    private static Event toEvent(CalendarEventDto calendarEventDto) {
+        Event event = new Event();
+        event.setSummary(calendarEventDto.getSummary());
+        event.setDescription(calendarEventDto.getDescription());
+        event.setLocation(calendarEventDto.getLocation());
+
+        if (calendarEventDto.getAttendees() != null && !calendarEventDto.getAttendees().isEmpty()) {
+            List<EventAttendee> attendees = calendarEventDto.getAttendees().stream()
+                    .map(email -> new EventAttendee().setEmail(email))
+                    .collect(Collectors.toList());
+            event.setAttendees(attendees);
+        }
+        String startStr = calendarEventDto.getStartDateTime();
+        String endStr = calendarEventDto.getEndDateTime();
+        Long durationMinutes = calendarEventDto.getMeetingDurationMinutes();
+
+        if ((startStr == null || startStr.isEmpty())) {
+            throw new IllegalArgumentException("startDateTime is required");
+        }
+
+        com.google.api.client.util.DateTime startDt = toDateTime(startStr);
+        com.google.api.client.util.DateTime endDt;
+
+        if (endStr != null && !endStr.isEmpty()) {
+            endDt = toDateTime(endStr);
+        } else if (durationMinutes != null) {
+            long endMillis = startDt.getValue() + (durationMinutes * 60L * 1000L);
+            endDt = new com.google.api.client.util.DateTime(endMillis);
+        } else {
+            throw new IllegalArgumentException("Either endDateTime or meetingDurationMinutes must be provided");
+        }
+
+        EventDateTime start = new EventDateTime();
+        EventDateTime end = new EventDateTime();
+        start.setDateTime(startDt);
+        end.setDateTime(endDt);
+        event.setStart(start);
+        event.setEnd(end);
+
+        String meetingLink = calendarEventDto.getMeetingLink();
+        if (meetingLink != null && !meetingLink.isEmpty()) {
+            String existingDesc = event.getDescription();
+            String joinText = "Join meeting: " + meetingLink;
+            if (existingDesc == null || existingDesc.isEmpty()) {
+                event.setDescription(joinText);
+            } else if (!existingDesc.contains(meetingLink)) {
+                event.setDescription(existingDesc + "\n\n" + joinText);
+            }
+            event.setLocation(meetingLink);
+        }
+        return event;
+    }
 
     private static com.google.api.client.util.DateTime toDateTime(String input) {
         if (input == null) return null;
@@ -101,58 +236,74 @@ public class CalenderService {
     }
 
     public List<CalendarEventDto> getAllEventDetails() {
+        LocalDateTime now = LocalDateTime.now();
+        return getEventDetails(now, now.plusWeeks(1));
+    }
+
+    public List<CalendarEventDto> getEventDetails(LocalDateTime timeMin, LocalDateTime timeMax) {
         try {
-            LocalDateTime now = LocalDateTime.now();
-            LocalDateTime oneWeekLater = now.plusWeeks(1);
-            Date startDate = Date.from(now.atZone(ZoneId.systemDefault()).toInstant());
-            Date endDate = Date.from(oneWeekLater.atZone(ZoneId.systemDefault()).toInstant());
-            DateTime timeMin = new DateTime(startDate);
-            DateTime timeMax = new DateTime(endDate);
-
-            Events events = calendarService.events().list(userEmail)
-                    .setTimeMin(timeMin)
-                    .setTimeMax(timeMax)
-                    .setOrderBy("startTime")
-                    .setSingleEvents(true)
-                    .execute();
-
-            List<CalendarEventDto> eventDtos = new ArrayList<>();
-            for (Event event : events.getItems()) {
-                String startStr = null;
-                String endStr = null;
-                Long meetingDurationMinutes = null;
-                if (event.getStart() != null && event.getEnd() != null) {
-                    com.google.api.client.util.DateTime startDt = event.getStart().getDateTime();
-                    com.google.api.client.util.DateTime endDt = event.getEnd().getDateTime();
-                    if (startDt != null && endDt != null) {
-                        startStr = startDt.toStringRfc3339();
-                        endStr = endDt.toStringRfc3339();
-                        meetingDurationMinutes = (endDt.getValue() - startDt.getValue()) / (1000 * 60);
-                    } else if (event.getStart().getDate() != null && event.getEnd().getDate() != null) {
-                        startStr = event.getStart().getDate().toStringRfc3339();
-                        endStr = event.getEnd().getDate().toStringRfc3339();
-                        meetingDurationMinutes = 24L * 60;
-                    }
+            long timeMinMillis = timeMin.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long timeMaxMillis = timeMax.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return calendarEventStore.getEvents(timeMinMillis, timeMaxMillis);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to fetch calendar events", e);
+        }
+    }
+
+    public List<SlotCheckDto> checkSlots(List<TimeSlotDto> slots) {
+        try {
+            List<SlotCheckDto> results = new ArrayList<>(slots.size());
+            for (TimeSlotDto slot : slots) {
+                if (slot == null || slot.startDateTime() == null || slot.endDateTime() == null) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Every slot needs startDateTime and endDateTime");
+                }
+                long startMillis;
+                long endMillis;
+                try {
+                    startMillis = toDateTime(slot.startDateTime()).getValue();
+                    endMillis = toDateTime(slot.endDateTime()).getValue();
+                } catch (IllegalArgumentException e) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
                 }
+                List<String> conflicts = calendarEventStore.findConflicts(startMillis, endMillis);
+                results.add(new SlotCheckDto(slot.startDateTime(), slot.endDateTime(), conflicts.isEmpty(), conflicts));
+            }
+            return results;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to check calendar slots", e);
+        }
+    }
 
-                CalendarEventDto dto = CalendarEventDto.builder()
-                        .eventId(event.getId())
-                        .summary(event.getSummary())
-                        .description(event.getDescription())
-                        .location(event.getLocation())
-                        .meetingLink(event.getHangoutLink())
-                        .organizerEmail(event.getOrganizer() != null ? event.getOrganizer().getEmail() : null)
-                        .attendees(event.getAttendees() != null ? event.getAttendees().stream().map(com.google.api.services.calendar.model.EventAttendee::getEmail).toList() : null)
-                        .startDateTime(startStr != null ? startStr : (event.getStart() != null ? (event.getStart().getDateTime() != null ? event.getStart().getDateTime().toString() : event.getStart().getDate() != null ? event.getStart().getDate().toString() : null) : null))
-                        .endDateTime(endStr != null ? endStr : (event.getEnd() != null ? (event.getEnd().getDateTime() != null ? event.getEnd().getDateTime().toString() : event.getEnd().getDate() != null ? event.getEnd().getDate().toString() : null) : null))
-                        .meetingDurationMinutes(meetingDurationMinutes)
-                        .build();
-                eventDtos.add(dto);
+    public List<TimeSlotDto> findFreeSlots(LocalDateTime timeMin, LocalDateTime timeMax, long durationMinutes) {
+        if (durationMinutes <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "durationMinutes must be positive");
+        }
+        try {
+            long from = timeMin.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long to = timeMax.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            long durationMillis = durationMinutes * 60L * 1000L;
+
+            List<TimeSlotDto> freeSlots = new ArrayList<>();
+            long cursor = from;
+            for (long[] busy : calendarEventStore.findBusy(from, to)) {
+                if (busy[0] - cursor >= durationMillis) {
+                    freeSlots.add(toSlot(cursor, busy[0]));
+                }
+                cursor = Math.max(cursor, busy[1]);
             }
-            return eventDtos;
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to fetch calendar events", e);
+            if (to - cursor >= durationMillis) {
+                freeSlots.add(toSlot(cursor, to));
+            }
+            return freeSlots;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to find free calendar slots", e);
         }
     }
 
+    private static TimeSlotDto toSlot(long startMillis, long endMillis) {
+        return new TimeSlotDto(
+                OffsetDateTime.ofInstant(Instant.ofEpochMilli(startMillis), ZoneId.systemDefault()).toString(),
+                OffsetDateTime.ofInstant(Instant.ofEpochMilli(endMillis), ZoneId.systemDefault()).toString());
+    }
+
 }
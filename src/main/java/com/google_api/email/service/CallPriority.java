@@ -0,0 +1,10 @@
+package com.google_api.email.service;
+
+/**
+ * Order in which callers waiting for quota are served; lower ordinal goes first.
+ */
+public enum CallPriority {
+    HIGH,
+    NORMAL,
+    BULK
+}
@@ -0,0 +1,275 @@
+package com.google_api.email.service;
+
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.CalendarEventDto;
+import com.google_api.email.dto.GmailDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * One background poller per account for new mail and calendar changes, shared by every SSE subscriber of
+ * that account, so upstream load does not grow with the number of clients. An account is polled only while
+ * someone is subscribed, through the same cached fetch paths as the REST endpoints. Events get increasing
+ * ids per account and the last {@code watch.buffer-size} are kept for resuming with {@code Last-Event-ID}.
+ * Each subscriber has a bounded queue of {@code watch.subscriber-queue} events; a subscriber that falls
+ * behind is disconnected and can resume from its last id.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChangeWatcher {
+
+    // Gmail's after: filter has second granularity, so each poll looks back a little further.
+    private static final long MAIL_OVERLAP_SECONDS = 60;
+
+    private final GoogleAccountRegistry accounts;
+    private final GMailConnectorService mailService;
+    private final CalenderService calenderService;
+
+    @Value("${watch.poll-interval:PT15S}")
+    private Duration pollInterval;
+
+    @Value("${watch.buffer-size:1000}")
+    private int bufferSize;
+
+    @Value("${watch.subscriber-queue:256}")
+    private int subscriberQueue;
+
+    @Value("${watch.calendar-window:P7D}")
+    private Duration calendarWindow;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(ChangeWatcher.class);
+
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService pollWorkers = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, AccountWatch> watches = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void start() {
+        poller.scheduleWithFixedDelay(this::pollAll, pollInterval.toMillis(), pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        poller.shutdownNow();
+        pollWorkers.shutdownNow();
+        watches.values().forEach(watch -> watch.subscribers.forEach(subscriber -> subscriber.emitter.complete()));
+    }
+
+    /**
+     * Opens a stream for the current account. With {@code lastEventId}, buffered events after it are replayed
+     * first; if events after that id may have been missed (it left the buffer, or the account went unwatched
+     * since) a {@code resync} event tells the client to reload its state.
+     */
+    public SseEmitter subscribe(String lastEventId) {
+        String accountId = accounts.current().id();
+        return watches.computeIfAbsent(accountId, AccountWatch::new).subscribe(lastEventId);
+    }
+
+    // Accounts are polled in parallel, each by at most one poll at a time.
+    private void pollAll() {
+        for (AccountWatch watch : watches.values()) {
+            if (watch.polling.compareAndSet(false, true)) {
+                pollWorkers.execute(() -> {
+                    try {
+                        AccountContext.callAs(watch.accountId, () -> {
+                            watch.poll();
+                            return null;
+                        });
+                    } finally {
+                        watch.polling.set(false);
+                    }
+                });
+            }
+        }
+    }
+
+    private void deliver(AccountWatch watch, Subscriber subscriber, List<WatchEvent> replay) {
+        try {
+            for (WatchEvent event : replay) {
+                send(subscriber, event);
+            }
+            while (watch.subscribers.contains(subscriber)) {
+                WatchEvent event = subscriber.queue.poll(pollInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if (event != null) {
+                    send(subscriber, event);
+                } else {
+                    subscriber.emitter.send(SseEmitter.event().comment("keep-alive"));
+                }
+            }
+        } catch (IOException | IllegalStateException e) {
+            watch.subscribers.remove(subscriber);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            watch.subscribers.remove(subscriber);
+        }
+    }
+
+    private static void send(Subscriber subscriber, WatchEvent event) throws IOException {
+        subscriber.emitter.send(SseEmitter.event()
+                .id(Long.toString(event.id))
+                .name(event.type)
+                .data(event.data, MediaType.APPLICATION_JSON));
+    }
+
+    private static long parseEventId(String lastEventId) {
+        try {
+            return Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private final class AccountWatch {
+        private final String accountId;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private final AtomicBoolean polling = new AtomicBoolean();
+        private final ArrayDeque<WatchEvent> history = new ArrayDeque<>();
+        private final Set<String> seenMessageIds = new LinkedHashSet<>();
+        private Map<String, CalendarEventDto> knownEvents = new HashMap<>();
+        private long nextEventId = 1;
+        private long baselineEventId;
+        private long mailSinceSeconds;
+        private boolean primed;
+
+        private AccountWatch(String accountId) {
+            this.accountId = accountId;
+        }
+
+        private SseEmitter subscribe(String lastEventId) {
+            Subscriber subscriber = new Subscriber(new SseEmitter(0L), new ArrayBlockingQueue<>(subscriberQueue));
+            List<WatchEvent> replay = new ArrayList<>();
+            synchronized (this) {
+                if (lastEventId != null && !lastEventId.isBlank()) {
+                    long lastId = parseEventId(lastEventId);
+                    // Resync when the id predates the last unwatched gap, has left the buffer, or was issued by
+                    // an earlier run of the service.
+                    boolean evicted = history.isEmpty() ? lastId < nextEventId - 1 : history.peekFirst().id > lastId + 1;
+                    if (lastId <= baselineEventId || lastId >= nextEventId || evicted) {
+                        replay.add(new WatchEvent(lastId, "resync", "Events after " + lastId + " are no longer buffered"));
+                    }
+                    for (WatchEvent event : history) {
+                        if (event.id > lastId) {
+                            replay.add(event);
+                        }
+                    }
+                }
+                subscribers.add(subscriber);
+            }
+
+            subscriber.emitter.onCompletion(() -> subscribers.remove(subscriber));
+            subscriber.emitter.onTimeout(() -> subscribers.remove(subscriber));
+            subscriber.emitter.onError(error -> subscribers.remove(subscriber));
+            Thread.ofVirtual().name("watch-subscriber").start(() -> deliver(this, subscriber, replay));
+            return subscriber.emitter;
+        }
+
+        private void poll() {
+            if (subscribers.isEmpty()) {
+                synchronized (this) {
+                    // Nobody is listening: stop polling and take a fresh baseline when someone subscribes again.
+                    // Changes in between are never published, so any earlier id has to resync.
+                    if (primed) {
+                        baselineEventId = nextEventId - 1;
+                    }
+                    primed = false;
+                }
+                return;
+            }
+            try {
+                long pollStartedSeconds = Instant.now().getEpochSecond();
+                long since;
+                synchronized (this) {
+                    since = primed ? mailSinceSeconds - MAIL_OVERLAP_SECONDS : pollStartedSeconds;
+                }
+                List<GmailDto> mail = mailService.unreadEmailsSince(since);
+                LocalDateTime now = LocalDateTime.now();
+                List<CalendarEventDto> events = calenderService.getEventDetails(now, now.plus(calendarWindow));
+                applyPoll(mail, events, pollStartedSeconds);
+            } catch (IOException | RuntimeException e) {
+                // The mail cursor stays put, so the next successful poll covers the outage.
+                logger.error(AGENT_EMOJI +"AGENT_WATCH - Poll for {} failed: {}", accountId, e.getMessage());
+            }
+        }
+
+        private synchronized void applyPoll(List<GmailDto> mail, List<CalendarEventDto> events, long pollStartedSeconds) {
+            for (GmailDto dto : mail) {
+                if (seenMessageIds.add(dto.messageId()) && primed) {
+                    publish("mail", dto);
+                }
+            }
+            Iterator<String> oldest = seenMessageIds.iterator();
+            while (seenMessageIds.size() > bufferSize * 10 && oldest.hasNext()) {
+                oldest.next();
+                oldest.remove();
+            }
+
+            Map<String, CalendarEventDto> current = new HashMap<>();
+            for (CalendarEventDto event : events) {
+                current.put(event.getEventId(), event);
+            }
+            if (primed) {
+                current.forEach((eventId, event) -> {
+                    if (!Objects.equals(knownEvents.get(eventId), event)) {
+                        publish("event", event);
+                    }
+                });
+                // Removed upstream, or no longer inside the watched window.
+                knownEvents.keySet().stream()
+                        .filter(eventId -> !current.containsKey(eventId))
+                        .forEach(eventId -> publish("event-removed", eventId));
+            }
+            knownEvents = current;
+            mailSinceSeconds = pollStartedSeconds;
+            primed = true;
+        }
+
+        private void publish(String type, Object data) {
+            WatchEvent event = new WatchEvent(nextEventId++, type, data);
+            history.addLast(event);
+            while (history.size() > bufferSize) {
+                history.removeFirst();
+            }
+            for (Subscriber subscriber : subscribers) {
+                if (!subscriber.queue.offer(event)) {
+                    logger.info(AGENT_EMOJI +"AGENT_WATCH - Disconnecting slow subscriber of {} at event {}", accountId, event.id);
+                    subscribers.remove(subscriber);
+                    subscriber.emitter.complete();
+                }
+            }
+        }
+    }
+
+    private record WatchEvent(long id, String type, Object data) { }
+
+    private record Subscriber(SseEmitter emitter, BlockingQueue<WatchEvent> queue) { }
+}
@@ -0,0 +1,20 @@
+package com.google_api.email.service;
+
+import java.util.List;
+
+/**
+ * An event was not created because it overlaps existing events and conflicts were to be rejected.
+ */
+public class EventConflictException extends RuntimeException {
+
+    private final List<String> conflictingEventIds;
+
+    public EventConflictException(List<String> conflictingEventIds) {
+        super("Overlaps existing events " + conflictingEventIds);
+        this.conflictingEventIds = List.copyOf(conflictingEventIds);
+    }
+
+    public List<String> conflictingEventIds() {
+        return conflictingEventIds;
+    }
+}
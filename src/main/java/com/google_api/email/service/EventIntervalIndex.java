@@ -0,0 +1,94 @@
+package com.google_api.email.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Static interval tree over half-open [start, end) intervals. Intervals are stored sorted by start and
+ * treated as an implicit balanced BST (the middle of each range is the node) where every node also
+ * carries the largest end in its subtree, so overlap queries skip subtrees that end before the window.
+ */
+final class EventIntervalIndex {
+
+    private final long[] starts;
+    private final long[] ends;
+    private final String[] ids;
+    private final long[] maxEnds;
+
+    /**
+     * @param intervals {@code [start, end]} pairs already sorted by start, with matching {@code ids}
+     */
+    EventIntervalIndex(List<long[]> intervals, List<String> ids) {
+        int size = intervals.size();
+        this.starts = new long[size];
+        this.ends = new long[size];
+        this.ids = ids.toArray(new String[0]);
+        this.maxEnds = new long[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = intervals.get(i)[0];
+            ends[i] = intervals.get(i)[1];
+        }
+        buildMaxEnds(0, size);
+    }
+
+    List<String> overlapping(long from, long to) {
+        List<String> matches = new ArrayList<>();
+        collect(0, starts.length, from, to, matches, null);
+        return matches;
+    }
+
+    /**
+     * Busy time inside [from, to), clipped to the window and merged into disjoint sorted intervals.
+     */
+    List<long[]> busy(long from, long to) {
+        List<long[]> overlapping = new ArrayList<>();
+        collect(0, starts.length, from, to, null, overlapping);
+
+        List<long[]> merged = new ArrayList<>();
+        for (long[] interval : overlapping) {
+            long start = Math.max(interval[0], from);
+            long end = Math.min(interval[1], to);
+            if (!merged.isEmpty() && start <= merged.get(merged.size() - 1)[1]) {
+                long[] last = merged.get(merged.size() - 1);
+                last[1] = Math.max(last[1], end);
+            } else {
+                merged.add(new long[]{start, end});
+            }
+        }
+        return merged;
+    }
+
+    private long buildMaxEnds(int low, int high) {
+        if (low >= high) {
+            return Long.MIN_VALUE;
+        }
+        int mid = (low + high) >>> 1;
+        long maxEnd = Math.max(ends[mid], Math.max(buildMaxEnds(low, mid), buildMaxEnds(mid + 1, high)));
+        maxEnds[mid] = maxEnd;
+        return maxEnd;
+    }
+
+    // In-order walk, so matches come out sorted by start.
+    private void collect(int low, int high, long from, long to, List<String> matchedIds, List<long[]> matchedIntervals) {
+        if (low >= high) {
+            return;
+        }
+        int mid = (low + high) >>> 1;
+        if (maxEnds[mid] <= from) {
+            return;
+        }
+        collect(low, mid, from, to, matchedIds, matchedIntervals);
+        if (starts[mid] >= to) {
+            return;
+        }
+        if (ends[mid] > from) {
+            if (matchedIds != null) {
+                matchedIds.add(ids[mid]);
+            }
+            if (matchedIntervals != null) {
+                matchedIntervals.add(new long[]{starts[mid], ends[mid]});
+            }
+        }
+        collect(mid + 1, high, from, to, matchedIds, matchedIntervals);
+    }
+}
@@ -1,11 +1,14 @@
 package com.google_api.email.service;
 
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
 import com.google_api.email.dto.GmailDto;
 import com.google_api.email.mapper.GmailMapper;
-import com.google.api.services.gmail.Gmail;
+import com.google_api.email.mapper.MessageProjection;
+import com.google.api.services.gmail.model.BatchModifyMessagesRequest;
 import com.google.api.services.gmail.model.ListMessagesResponse;
 import com.google.api.services.gmail.model.Message;
-import com.google.api.services.gmail.model.ModifyMessageRequest;
+import jakarta.annotation.PostConstruct;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -14,62 +17,146 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 import static com.google_api.shared.Constant.AGENT_EMOJI;
 
 @Service
 @RequiredArgsConstructor
 public class GMailConnectorService {
 
-    private final Gmail gmailService;
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
     private final GmailMapper gmailMapper;
+    private final GmailBatchFetcher batchFetcher;
+    private final GmailLabelRegistry labelRegistry;
+    private final LabelMutationCoalescer labelMutations;
+    private final UnreadEmailCache unreadEmailCache;
+    private final MailSearchIndex mailSearchIndex;
+    private final MailOutbox outbox;
 
-    @Value("${gmail.user.email}")
-    private String userEmail;
+    @Value("${gmail.stream.page-size:100}")
+    private long streamPageSize;
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GMailConnectorService.class);
 
+    private static final int BATCH_MODIFY_LIMIT = 1000;
+
+    private static final String MOVED_LABEL = "AI-AGENT-MOVED";
+
+    private static final String MOVE_TO_SPAM = "move-to-spam";
+
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outbox.register(MOVE_TO_SPAM, operation -> {
+            moveToSpam(operation.request("messageId"));
+            return "success";
+        });
+    }
+
 
     public List<GmailDto> readAndLabelUnreadEmailsFromInbox(long timestampSeconds) {
-        List<GmailDto> gmailDtos = new ArrayList<>();
         try {
-            String query = "is:unread after:" + timestampSeconds;
+            return unreadEmailsSince(timestampSeconds);
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_FETCH - Error reading emails: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+    }
 
-            ListMessagesResponse response = gmailService.users().messages().list(userEmail).setQ(query).setLabelIds(Arrays.asList("INBOX")).execute();
-            List<Message> messages = response.getMessages();
+    /**
+     * Same as {@link #readAndLabelUnreadEmailsFromInbox} but lets a failed fetch surface, so callers can tell
+     * it apart from an empty inbox.
+     */
+    public List<GmailDto> unreadEmailsSince(long timestampSeconds) throws IOException {
+        GoogleAccount account = accounts.current();
+        return unreadEmailCache.query(List.of(account.id(), timestampSeconds), () -> fetchUnreadEmails(account, timestampSeconds));
+    }
 
+    private List<GmailDto> fetchUnreadEmails(GoogleAccount account, long timestampSeconds) throws IOException {
+        String query = "is:unread after:" + timestampSeconds;
 
-            if (messages != null && !messages.isEmpty()) {
-                logger.info(AGENT_EMOJI +"AGENT_FETCH Found " + messages.size() + " unread messages received after " + timestampSeconds + ".");
-                for (Message message : messages) {
-                    Message fullMessage = gmailService.users().messages().get(userEmail, message.getId()).execute();
-                    gmailDtos.add(gmailMapper.messageToDto(fullMessage));
+        ListMessagesResponse response = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_LIST, CallPriority.NORMAL, account.gmail().users().messages().list(account.email()).setQ(query).setLabelIds(Arrays.asList("INBOX")).setFields(MessageProjection.LIST_FIELDS));
+        List<Message> messages = response.getMessages();
+
+        if (messages == null || messages.isEmpty()) {
+            logger.info(AGENT_EMOJI +"AGENT_FETCH - No unread messages found after the specified time.");
+            return Collections.emptyList();
+        }
+        logger.info(AGENT_EMOJI +"AGENT_FETCH Found " + messages.size() + " unread messages received after " + timestampSeconds + ".");
+        return Collections.unmodifiableList(toDtos(account, messages.stream().map(Message::getId).toList()));
+    }
+
+    // Only ids missing from the DTO cache are fetched; the result keeps the listing order.
+    private List<GmailDto> toDtos(GoogleAccount account, List<String> messageIds) throws IOException {
+        GmailDto[] dtos = new GmailDto[messageIds.size()];
+        List<String> missingIds = new ArrayList<>();
+        for (int i = 0; i < dtos.length; i++) {
+            dtos[i] = unreadEmailCache.getMessage(account.id(), messageIds.get(i));
+            if (dtos[i] == null) {
+                missingIds.add(messageIds.get(i));
+            }
+        }
+
+        if (!missingIds.isEmpty()) {
+            Map<String, GmailDto> fetched = new HashMap<>();
+            for (Message fullMessage : batchFetcher.fetchMessages(account, missingIds)) {
+                GmailDto dto = gmailMapper.messageToDto(fullMessage);
+                unreadEmailCache.putMessage(account.id(), dto);
+                fetched.put(dto.messageId(), dto);
+            }
+            mailSearchIndex.index(account.id(), fetched.values());
+            for (int i = 0; i < dtos.length; i++) {
+                if (dtos[i] == null) {
+                    dtos[i] = fetched.get(messageIds.get(i));
                 }
-            } else {
-                logger.info(AGENT_EMOJI +"AGENT_FETCH - No unread messages found after the specified time.");
             }
+        }
 
-        } catch (IOException e) {
-            logger.error(AGENT_EMOJI +"AGENT_FETCH - Error reading emails: {}", e.getMessage());
-            return Collections.emptyList();
+        List<GmailDto> gmailDtos = new ArrayList<>(dtos.length);
+        for (GmailDto dto : dtos) {
+            if (dto != null) {
+                gmailDtos.add(dto);
+            }
         }
         return gmailDtos;
     }
 
+    public String streamUnreadEmailsFromInbox(long timestampSeconds, String pageToken, int limit, Consumer<GmailDto> sink) throws IOException {
+        GoogleAccount account = accounts.current();
+        String query = "is:unread after:" + timestampSeconds;
+        String nextPageToken = pageToken;
+        int emitted = 0;
+
+        do {
+            ListMessagesResponse response = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_LIST, CallPriority.NORMAL, account.gmail().users().messages().list(account.email())
+                    .setQ(query)
+                    .setLabelIds(Arrays.asList("INBOX"))
+                    .setMaxResults(Math.min(streamPageSize, limit - emitted))
+                    .setPageToken(nextPageToken)
+                    .setFields(MessageProjection.LIST_FIELDS));
+            List<Message> messages = response.getMessages();
+
+            if (messages != null && !messages.isEmpty()) {
+                // Messages that could not be fetched are skipped, so only what reached the sink counts.
+                for (GmailDto gmailDto : toDtos(account, messages.stream().map(Message::getId).toList())) {
+                    sink.accept(gmailDto);
+                    emitted++;
+                }
+            }
+            nextPageToken = response.getNextPageToken();
+        } while (nextPageToken != null && emitted < limit);
+
+        logger.info(AGENT_EMOJI +"AGENT_FETCH - Streamed " + emitted + " unread messages received after " + timestampSeconds + ".");
+        return nextPageToken;
+    }
+
     public String moveMessageToSpamWithLabelAndUnread(String messageId) {
         try {
-            String labelName = "AI-AGENT-MOVED";
-            String labelId = getOrCreateLabelId(labelName);
-
-            ModifyMessageRequest spamMods = new ModifyMessageRequest()
-                    .setAddLabelIds(List.of("SPAM", "UNREAD"))
-                    .setRemoveLabelIds(List.of("INBOX"));
-            gmailService.users().messages().modify(userEmail, messageId, spamMods).execute();
-
-            ModifyMessageRequest labelMods = new ModifyMessageRequest()
-                    .setAddLabelIds(List.of(labelId));
-            gmailService.users().messages().modify(userEmail, messageId, labelMods).execute();
-            logger.info(AGENT_EMOJI +"AGENT_MOVE - Successfully moved mail to spam with label: {}", labelName);
+            moveToSpam(messageId);
             return "success";
         } catch (IOException e) {
             logger.error(AGENT_EMOJI +"AGENT_MOVE - Error moving message to spam: {}", e.getMessage());
@@ -77,78 +164,105 @@ public class GMailConnectorService {
         }
     }
 
-    private String getOrCreateLabelId(String labelName) {
-        try {
-            List<com.google.api.services.gmail.model.Label> labels = gmailService.users().labels().list(userEmail).execute().getLabels();
-
-            for (com.google.api.services.gmail.model.Label label : labels) {
-                if (label.getName().equalsIgnoreCase(labelName)) {
-                    return label.getId();
-                }
-            }
-
-            com.google.api.services.gmail.model.Label newLabel = new com.google.api.services.gmail.model.Label()
-                    .setName(labelName)
-                    .setLabelListVisibility("labelShow")
-                    .setMessageListVisibility("show");
+    /**
+     * Queues the move in the {@link MailOutbox}; it is applied, and retried, by the outbox workers.
+     */
+    public MailOutbox.Operation submitMoveToSpam(String messageId, String idempotencyKey) {
+        return outbox.submit(MOVE_TO_SPAM, Map.of("messageId", messageId), idempotencyKey);
+    }
 
-            com.google.api.services.gmail.model.Label createdLabel =
-                    gmailService.users().labels().create(userEmail, newLabel).execute();
+    // Adding and removing labels is idempotent, so a replayed move is harmless.
+    private void moveToSpam(String messageId) throws IOException {
+        try {
+            String labelId = labelRegistry.getOrCreateLabelId(MOVED_LABEL);
 
-            return createdLabel.getId();
+            labelMutations.modifyAndWait(messageId, List.of("SPAM", "UNREAD", labelId), List.of("INBOX"));
+            logger.info(AGENT_EMOJI +"AGENT_MOVE - Successfully moved mail to spam with label: {}", MOVED_LABEL);
         } catch (IOException e) {
-            logger.error("Error moving message to spam: {}", e.getMessage());
-            return "failure";
+            labelRegistry.invalidateOnNotFound(e);
+            throw e;
         }
     }
 
     public String removeLabelAndMoveToInbox(String labelName, String folderName) {
         try {
-            List<com.google.api.services.gmail.model.Label> labels =
-                    gmailService.users().labels().list(userEmail).execute().getLabels();
-
-            String labelId = null;
-            String folderId = null;
+            return removeLabelAndMoveToInbox(labelName, folderName, BulkProgress.NONE);
+        } catch (NoSuchElementException e) {
+            return e.getMessage();
+        } catch (IOException e) {
+            logger.error("Error removing label and moving to inbox: {}", e.getMessage());
+            return "failure: " + e.getMessage();
+        }
+    }
 
-            for (com.google.api.services.gmail.model.Label label : labels) {
-                if (label.getName().equalsIgnoreCase(labelName) || label.getId().equalsIgnoreCase(labelName)) {
-                    labelId = label.getId();
-                }
-                if (label.getName().equalsIgnoreCase(folderName) || label.getId().equalsIgnoreCase(folderName)) {
-                    folderId = label.getId();
-                }
-            }
+    /**
+     * Moves every message in {@code folderName} back to the inbox without {@code labelName}. Safe to run again
+     * after a partial failure: messages already moved have left the folder.
+     *
+     * @throws NoSuchElementException if the label or the folder does not exist
+     */
+    public String removeLabelAndMoveToInbox(String labelName, String folderName, BulkProgress progress) throws IOException {
+        GoogleAccount account = accounts.current();
+        try {
+            String labelId = labelRegistry.findLabelId(labelName);
+            String folderId = labelRegistry.findLabelId(folderName);
 
             if (labelId == null) {
-                return "Label not found: " + labelName;
+                throw new NoSuchElementException("Label not found: " + labelName);
             }
             if (folderId == null) {
-                return "Folder not found: " + folderName;
+                throw new NoSuchElementException("Folder not found: " + folderName);
             }
 
-            ListMessagesResponse response = gmailService.users().messages().list(userEmail).setLabelIds(Collections.singletonList(folderId)).execute();
+            // Collect every id first: modifying while paging would shift the folder listing under the page token.
+            List<String> messageIds = new ArrayList<>();
+            String pageToken = null;
+            do {
+                ListMessagesResponse response = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_LIST, CallPriority.BULK, account.gmail().users().messages().list(account.email())
+                        .setLabelIds(Collections.singletonList(folderId))
+                        .setMaxResults(500L)
+                        .setPageToken(pageToken)
+                        .setFields(MessageProjection.LIST_FIELDS));
+                if (response.getMessages() != null) {
+                    response.getMessages().forEach(message -> messageIds.add(message.getId()));
+                }
+                pageToken = response.getNextPageToken();
+            } while (pageToken != null);
 
-            List<Message> messages = response.getMessages();
-            if (messages == null || messages.isEmpty()) {
+            if (messageIds.isEmpty()) {
                 return "No messages found in folder: " + folderName;
             }
+            progress.onTotal(messageIds.size());
 
-            for (Message message : messages) {
-                ModifyMessageRequest mods = new ModifyMessageRequest()
+            for (int from = 0; from < messageIds.size(); from += BATCH_MODIFY_LIMIT) {
+                int to = Math.min(from + BATCH_MODIFY_LIMIT, messageIds.size());
+                BatchModifyMessagesRequest mods = new BatchModifyMessagesRequest()
+                        .setIds(messageIds.subList(from, to))
                         .setRemoveLabelIds(Arrays.asList(labelId, folderId))
                         .setAddLabelIds(Arrays.asList("INBOX", "UNREAD"));
 
-                gmailService.users().messages()
-                        .modify(userEmail, message.getId(), mods)
-                        .execute();
+                apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_BATCH_MODIFY, CallPriority.BULK, account.gmail().users().messages().batchModify(account.email(), mods));
+                mailSearchIndex.updateLabels(account.id(), mods.getIds(), mods.getAddLabelIds(), mods.getRemoveLabelIds());
+                unreadEmailCache.updateLabels(account.id(), mods.getIds(), mods.getAddLabelIds(), mods.getRemoveLabelIds());
+                progress.onProcessed(to);
             }
 
-            return "success (" + messages.size() + " messages updated)";
+            return "success (" + messageIds.size() + " messages updated)";
         } catch (IOException e) {
-            logger.error("Error removing label and moving to inbox: {}", e.getMessage());
-            return "failure: " + e.getMessage();
+            labelRegistry.invalidateOnNotFound(e);
+            throw e;
         }
     }
 
+    public interface BulkProgress {
+
+        BulkProgress NONE = new BulkProgress() { };
+
+        default void onTotal(int totalMessages) {
+        }
+
+        default void onProcessed(int processedMessages) {
+        }
+    }
 
 }
\ No newline at end of file
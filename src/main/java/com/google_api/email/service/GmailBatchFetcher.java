@@ -0,0 +1,138 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.services.gmail.model.Message;
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccount;
+import com.google_api.email.mapper.GmailMapper;
+import com.google_api.email.mapper.MessageProjection;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Fetches messages through the Gmail batch endpoint instead of one HTTP round trip per id.
+ * Ids are split into chunks of {@code gmail.batch.size}; at most {@code gmail.batch.concurrency}
+ * chunks are in flight at once across all callers. Results keep the order of the requested ids.
+ */
+@Component
+@RequiredArgsConstructor
+public class GmailBatchFetcher {
+
+    private final GoogleApiScheduler apiScheduler;
+    private final GoogleCallExecutor callExecutor;
+
+    @Value("${gmail.batch.size:50}")
+    private int batchSize;
+
+    @Value("${gmail.batch.concurrency:4}")
+    private int concurrency;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GmailBatchFetcher.class);
+
+    private Semaphore chunkPermits;
+
+    @PostConstruct
+    void init() {
+        chunkPermits = new Semaphore(concurrency);
+    }
+
+    public List<Message> fetchMessages(GoogleAccount account, List<String> messageIds) throws IOException {
+        return fetchMessages(account, messageIds, GmailMapper.PROJECTION);
+    }
+
+    public List<Message> fetchMessages(GoogleAccount account, List<String> messageIds, MessageProjection projection) throws IOException {
+        Message[] results = new Message[messageIds.size()];
+
+        List<Future<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < messageIds.size(); from += batchSize) {
+            int start = from;
+            int end = Math.min(from + batchSize, messageIds.size());
+            // Bound to the account so its chunks draw on the account's quota.
+            chunks.add(callExecutor.executor().submit(GoogleApiMetrics.propagateFanOut(() -> AccountContext.callAs(account.id(), () -> {
+                chunkPermits.acquire();
+                try {
+                    return fetchChunk(account, messageIds, projection, start, end, results);
+                } finally {
+                    chunkPermits.release();
+                }
+            }))));
+        }
+
+        for (Future<Void> chunk : chunks) {
+            try {
+                chunk.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching messages", e);
+            }
+        }
+
+        List<Message> messages = new ArrayList<>(results.length);
+        for (Message message : results) {
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    private Void fetchChunk(GoogleAccount account, List<String> messageIds, MessageProjection projection, int start, int end, Message[] results) throws IOException {
+        if (end - start == 1) {
+            results[start] = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_GET, CallPriority.NORMAL, projection.apply(account.gmail().users().messages().get(account.email(), messageIds.get(start))));
+            return null;
+        }
+
+        List<Integer> pending = new ArrayList<>();
+        for (int i = start; i < end; i++) {
+            pending.add(i);
+        }
+
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                apiScheduler.backoff(attempt - 1);
+            }
+            int currentAttempt = attempt;
+            List<Integer> retry = new ArrayList<>();
+
+            BatchRequest batch = account.gmail().batch();
+            for (int index : pending) {
+                projection.apply(account.gmail().users().messages().get(account.email(), messageIds.get(index))).queue(batch, new JsonBatchCallback<Message>() {
+                    @Override
+                    public void onSuccess(Message message, HttpHeaders responseHeaders) {
+                        results[index] = message;
+                    }
+
+                    @Override
+                    public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                        if (apiScheduler.shouldRetry(GoogleApiMethod.GMAIL_MESSAGES_GET, error, currentAttempt)) {
+                            retry.add(index);
+                        } else {
+                            logger.warn(AGENT_EMOJI + "AGENT_FETCH - Skipping message {}: {}", messageIds.get(index), error.getMessage());
+                        }
+                    }
+                });
+            }
+            apiScheduler.executeBatch(GoogleApiMethod.GMAIL_MESSAGES_GET, CallPriority.NORMAL, batch, attempt);
+            pending = retry;
+        }
+        return null;
+    }
+}
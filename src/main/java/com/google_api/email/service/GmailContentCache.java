@@ -0,0 +1,289 @@
+package com.google_api.email.service;
+
+import com.fasterxml.jackson.core.Base64Variant;
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Content-addressed disk cache for attachments and raw messages. The Base64url field of the Gmail
+ * response is decoded while it is parsed and written straight to a file channel, so heap use does not
+ * depend on the payload size. Blobs are named by their SHA-256, so identical content is stored once
+ * across accounts; a small ref file maps each account/message/attachment key to its blob. Downloads are single-flight per key, and the least recently used
+ * blobs are evicted once the cache exceeds {@code gmail.content-cache.max-size}. Sizes and recency are kept in memory,
+ * seeded from the directory at startup, and a blob returned within {@code gmail.content-cache.serve-grace} is never
+ * evicted, so a response still being written, or a Range request following it, finds its file.
+ */
+@Component
+@RequiredArgsConstructor
+public class GmailContentCache {
+
+    private static final JsonFactory JSON = new JsonFactory();
+    private static final Base64Variant BASE64URL = Base64Variants.MODIFIED_FOR_URL.withPaddingAllowed();
+
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+
+    @Value("${gmail.content-cache.dir:cache/gmail-content}")
+    private String cacheDir;
+
+    @Value("${gmail.content-cache.max-size:1GB}")
+    private DataSize maxSize;
+
+    @Value("${gmail.content-cache.serve-grace:PT5M}")
+    private Duration serveGrace;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GmailContentCache.class);
+
+    private Path blobDir;
+    private Path refDir;
+    private final Map<String, CompletableFuture<Path>> downloads = new ConcurrentHashMap<>();
+    // Blob name to size and last use, least recently used first; guarded by this.
+    private final LinkedHashMap<String, Blob> blobs = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private static final class Blob {
+        private final long size;
+        private long lastUsedMillis;
+
+        private Blob(long size, long lastUsedMillis) {
+            this.size = size;
+            this.lastUsedMillis = lastUsedMillis;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RequestFactory {
+        AbstractGoogleClientRequest<?> create() throws IOException;
+    }
+
+    @PostConstruct
+    void init() throws IOException {
+        blobDir = Files.createDirectories(Path.of(cacheDir, "blobs"));
+        refDir = Files.createDirectories(Path.of(cacheDir, "refs"));
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(blobDir)) {
+            files = listing.sorted(Comparator.comparing(GmailContentCache::lastModified)).toList();
+        }
+        synchronized (this) {
+            for (Path file : files) {
+                if (file.getFileName().toString().endsWith(".tmp")) {
+                    // Left behind by a download that did not finish.
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+                long size = Files.size(file);
+                blobs.put(file.getFileName().toString(), new Blob(size, lastModified(file).toMillis()));
+                totalBytes += size;
+            }
+        }
+    }
+
+    public Path attachment(String messageId, String attachmentId) throws IOException {
+        GoogleAccount account = accounts.current();
+        return cached(account.id() + "/attachment/" + messageId + "/" + attachmentId, "data", GoogleApiMethod.GMAIL_ATTACHMENTS_GET,
+                () -> account.gmail().users().messages().attachments().get(account.email(), messageId, attachmentId).setFields("data"));
+    }
+
+    public Path rawMessage(String messageId) throws IOException {
+        GoogleAccount account = accounts.current();
+        return cached(account.id() + "/raw/" + messageId, "raw", GoogleApiMethod.GMAIL_MESSAGES_GET,
+                () -> account.gmail().users().messages().get(account.email(), messageId).setFormat("raw").setFields("raw"));
+    }
+
+    private Path cached(String key, String field, GoogleApiMethod method, RequestFactory requestFactory) throws IOException {
+        Path ref = refDir.resolve(sha256Hex(key));
+        Path blob = lookup(ref);
+        if (blob != null) {
+            return blob;
+        }
+
+        CompletableFuture<Path> download = new CompletableFuture<>();
+        CompletableFuture<Path> inFlight = downloads.putIfAbsent(key, download);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            Path downloaded = download(method, field, requestFactory);
+            Files.writeString(ref, downloaded.getFileName().toString(), StandardCharsets.US_ASCII);
+            download.complete(downloaded);
+            evictIfNeeded();
+        } catch (IOException | RuntimeException e) {
+            download.completeExceptionally(e);
+        } finally {
+            downloads.remove(key, download);
+        }
+        return await(download);
+    }
+
+    private Path lookup(Path ref) throws IOException {
+        if (!Files.exists(ref)) {
+            return null;
+        }
+        String name = Files.readString(ref, StandardCharsets.US_ASCII).trim();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            Blob blob = blobs.get(name);
+            if (blob == null) {
+                // Blob was evicted; the ref is overwritten by the next download.
+                return null;
+            }
+            blob.lastUsedMillis = now;
+        }
+        Path blob = blobDir.resolve(name);
+        try {
+            // Persists the recency for the ordering after a restart.
+            Files.setLastModifiedTime(blob, FileTime.fromMillis(now));
+        } catch (IOException e) {
+            logger.debug(AGENT_EMOJI +"AGENT_CONTENT - Could not touch {}: {}", name, e.getMessage());
+        }
+        return blob;
+    }
+
+    // Each scheduler attempt streams into its own temp file, so a retried call never sees a partial blob.
+    private Path download(GoogleApiMethod method, String field, RequestFactory requestFactory) throws IOException {
+        return apiScheduler.execute(method, CallPriority.NORMAL, () -> {
+            HttpResponse response = requestFactory.create().executeUnparsed();
+            Path temp = Files.createTempFile(blobDir, "download-", ".tmp");
+            MessageDigest digest = sha256();
+            try (InputStream content = response.getContent();
+                 JsonParser parser = JSON.createParser(content);
+                 OutputStream out = new DigestOutputStream(new BufferedOutputStream(
+                         Channels.newOutputStream(FileChannel.open(temp, StandardOpenOption.WRITE))), digest)) {
+                if (!seekField(parser, field)) {
+                    throw new IOException("Gmail response has no " + field + " field");
+                }
+                parser.readBinaryValue(BASE64URL, out);
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            } finally {
+                response.disconnect();
+            }
+
+            String name = HexFormat.of().formatHex(digest.digest());
+            Path blob = blobDir.resolve(name);
+            long size = Files.size(temp);
+            synchronized (this) {
+                Blob existing = blobs.get(name);
+                if (existing != null) {
+                    existing.lastUsedMillis = System.currentTimeMillis();
+                    Files.delete(temp);
+                } else {
+                    Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    blobs.put(name, new Blob(size, System.currentTimeMillis()));
+                    totalBytes += size;
+                }
+            }
+            return blob;
+        });
+    }
+
+    private static boolean seekField(JsonParser parser, String field) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (field.equals(name) && value == JsonToken.VALUE_STRING) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private synchronized void evictIfNeeded() {
+        if (totalBytes <= maxSize.toBytes()) {
+            return;
+        }
+        long protectedSince = System.currentTimeMillis() - serveGrace.toMillis();
+        Iterator<Map.Entry<String, Blob>> oldestFirst = blobs.entrySet().iterator();
+        while (totalBytes > maxSize.toBytes() && oldestFirst.hasNext()) {
+            Map.Entry<String, Blob> entry = oldestFirst.next();
+            if (entry.getValue().lastUsedMillis >= protectedSince) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(blobDir.resolve(entry.getKey()));
+            } catch (IOException e) {
+                logger.warn(AGENT_EMOJI +"AGENT_CONTENT - Could not evict {}: {}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            oldestFirst.remove();
+            totalBytes -= entry.getValue().size;
+            logger.info(AGENT_EMOJI +"AGENT_CONTENT - Evicted {} from content cache", entry.getKey());
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static String sha256Hex(String value) {
+        return HexFormat.of().formatHex(sha256().digest(value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path await(CompletableFuture<Path> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.gmail.model.Label;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Shared name/id cache for Gmail labels, kept per account. The label list is reloaded when older than
+ * {@code gmail.labels.cache-ttl} or after {@link #invalidate()}; reloads are single-flight per account and
+ * label creation is single-flight per name, so concurrent callers never create duplicates. Names that are
+ * still unknown after a reload are remembered until the next one. Lookups are published as
+ * {@code gmail.labels.cache.lookups}, tagged by account and result.
+ */
+@Component
+@RequiredArgsConstructor
+public class GmailLabelRegistry implements MeterBinder {
+
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+
+    @Value("${gmail.labels.cache-ttl:PT5M}")
+    private Duration cacheTtl;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GmailLabelRegistry.class);
+
+    private final Map<String, AccountLabels> labelsByAccount = new ConcurrentHashMap<>();
+    private final Map<String, LookupStats> statsByAccount = new ConcurrentHashMap<>();
+
+    public String getOrCreateLabelId(String labelName) throws IOException {
+        AccountLabels labels = labels();
+        String labelId = findLabelId(labels, labelName);
+        if (labelId != null) {
+            return labelId;
+        }
+
+        String key = labelName.toLowerCase(Locale.ROOT);
+        CompletableFuture<String> created = new CompletableFuture<>();
+        CompletableFuture<String> inFlight = labels.creations.putIfAbsent(key, created);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            created.complete(createLabel(labels, labelName));
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+        } finally {
+            labels.creations.remove(key, created);
+        }
+        return await(created);
+    }
+
+    /**
+     * Resolves a label by name or id, case-insensitively. Returns {@code null} when no such label exists.
+     */
+    public String findLabelId(String nameOrId) throws IOException {
+        return findLabelId(labels(), nameOrId);
+    }
+
+    private String findLabelId(AccountLabels labels, String nameOrId) throws IOException {
+        String key = nameOrId.toLowerCase(Locale.ROOT);
+        LookupStats stats = stats(labels.account.id());
+        Snapshot current = currentSnapshot(labels);
+        String labelId = current.lookup(key);
+        if (labelId != null || current.missing.contains(key)) {
+            stats.hits.increment();
+            return labelId;
+        }
+
+        stats.misses.increment();
+        current = reload(labels);
+        labelId = current.lookup(key);
+        if (labelId == null) {
+            current.missing.add(key);
+        }
+        return labelId;
+    }
+
+    public String findLabelName(String labelId) throws IOException {
+        return currentSnapshot(labels()).namesById.get(labelId);
+    }
+
+    /**
+     * Drops the current account's cached labels.
+     */
+    public void invalidate() {
+        labels().snapshot = Snapshot.empty();
+    }
+
+    /**
+     * Drops the cache when {@code e} is a 404, i.e. a cached label id no longer exists upstream.
+     */
+    public void invalidateOnNotFound(IOException e) {
+        if (e instanceof GoogleJsonResponseException responseException && responseException.getStatusCode() == 404) {
+            logger.info(AGENT_EMOJI +"AGENT_LABELS - Label lookup returned 404, invalidating label cache");
+            invalidate();
+        }
+    }
+
+    public long hitCount() {
+        return statsByAccount.values().stream().mapToLong(stats -> stats.hits.sum()).sum();
+    }
+
+    public long missCount() {
+        return statsByAccount.values().stream().mapToLong(stats -> stats.misses.sum()).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (String accountId : accounts.accountIds()) {
+            LookupStats stats = stats(accountId);
+            FunctionCounter.builder("gmail.labels.cache.lookups", stats.hits, LongAdder::sum)
+                    .tag("account", accountId).tag("result", "hit").register(registry);
+            FunctionCounter.builder("gmail.labels.cache.lookups", stats.misses, LongAdder::sum)
+                    .tag("account", accountId).tag("result", "miss").register(registry);
+        }
+    }
+
+    private LookupStats stats(String accountId) {
+        return statsByAccount.computeIfAbsent(accountId, id -> new LookupStats());
+    }
+
+    private AccountLabels labels() {
+        GoogleAccount account = accounts.current();
+        return labelsByAccount.computeIfAbsent(account.id(), id -> new AccountLabels(account));
+    }
+
+    private Snapshot currentSnapshot(AccountLabels labels) throws IOException {
+        Snapshot current = labels.snapshot;
+        if (current.loadedAtNanos == 0 || System.nanoTime() - current.loadedAtNanos > cacheTtl.toNanos()) {
+            current = reload(labels);
+        }
+        return current;
+    }
+
+    // Callers arriving while a reload is running wait for it instead of starting their own.
+    private Snapshot reload(AccountLabels labels) throws IOException {
+        GoogleAccount account = labels.account;
+        CompletableFuture<Snapshot> created = new CompletableFuture<>();
+        CompletableFuture<Snapshot> inFlight = labels.reloading.compareAndExchange(null, created);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            List<Label> loadedLabels = apiScheduler.execute(GoogleApiMethod.GMAIL_LABELS_LIST, CallPriority.HIGH, account.gmail().users().labels().list(account.email()).setFields("labels(id,name)")).getLabels();
+            Snapshot loaded = Snapshot.of(loadedLabels != null ? loadedLabels : Collections.emptyList());
+            labels.snapshot = loaded;
+            created.complete(loaded);
+        } catch (IOException | RuntimeException e) {
+            created.completeExceptionally(e);
+        } finally {
+            labels.reloading.set(null);
+        }
+        return await(created);
+    }
+
+    private String createLabel(AccountLabels labels, String labelName) throws IOException {
+        GoogleAccount account = labels.account;
+        String existing = reload(labels).idsByName.get(labelName.toLowerCase(Locale.ROOT));
+        if (existing != null) {
+            return existing;
+        }
+
+        Label newLabel = new Label()
+                .setName(labelName)
+                .setLabelListVisibility("labelShow")
+                .setMessageListVisibility("show");
+        Label createdLabel = apiScheduler.execute(GoogleApiMethod.GMAIL_LABELS_CREATE, CallPriority.HIGH, account.gmail().users().labels().create(account.email(), newLabel).setFields("id"));
+        logger.info(AGENT_EMOJI +"AGENT_LABELS - Created label {} with id {} for {}", labelName, createdLabel.getId(), account.id());
+        reload(labels);
+        return createdLabel.getId();
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+    }
+
+    private static final class AccountLabels {
+        private final GoogleAccount account;
+        private final Map<String, CompletableFuture<String>> creations = new ConcurrentHashMap<>();
+        private final AtomicReference<CompletableFuture<Snapshot>> reloading = new AtomicReference<>();
+        private volatile Snapshot snapshot = Snapshot.empty();
+
+        private AccountLabels(GoogleAccount account) {
+            this.account = account;
+        }
+    }
+
+    private record LookupStats(LongAdder hits, LongAdder misses) {
+
+        LookupStats() {
+            this(new LongAdder(), new LongAdder());
+        }
+    }
+
+    // missing holds lower-cased names not found in this load; it goes away with the snapshot.
+    private record Snapshot(Map<String, String> idsByName, Map<String, String> idsByLowerId,
+                            Map<String, String> namesById, Set<String> missing, long loadedAtNanos) {
+
+        static Snapshot empty() {
+            return new Snapshot(Map.of(), Map.of(), Map.of(), ConcurrentHashMap.newKeySet(), 0);
+        }
+
+        String lookup(String key) {
+            String labelId = idsByName.get(key);
+            return labelId != null ? labelId : idsByLowerId.get(key);
+        }
+
+        static Snapshot of(List<Label> labels) {
+            Map<String, String> idsByName = new HashMap<>();
+            Map<String, String> idsByLowerId = new HashMap<>();
+            Map<String, String> namesById = new HashMap<>();
+            for (Label label : labels) {
+                idsByName.putIfAbsent(label.getName().toLowerCase(Locale.ROOT), label.getId());
+                idsByLowerId.put(label.getId().toLowerCase(Locale.ROOT), label.getId());
+                namesById.put(label.getId(), label.getName());
+            }
+            return new Snapshot(idsByName, idsByLowerId, namesById, ConcurrentHashMap.newKeySet(), System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.google_api.email.service;
+
+/**
+ * Google API methods routed through {@link GoogleApiScheduler}, with the quota units each call costs.
+ * Gmail units follow the published per-method costs; Calendar is counted per request. Methods that are not
+ * idempotent may have taken effect before a 5xx, so the scheduler does not repeat them after one.
+ */
+public enum GoogleApiMethod {
+
+    GMAIL_MESSAGES_LIST("gmail", "messages.list", 5, true),
+    GMAIL_MESSAGES_GET("gmail", "messages.get", 5, true),
+    GMAIL_MESSAGES_MODIFY("gmail", "messages.modify", 5, true),
+    GMAIL_MESSAGES_BATCH_MODIFY("gmail", "messages.batchModify", 50, true),
+    GMAIL_MESSAGES_SEND("gmail", "messages.send", 100, false),
+    GMAIL_ATTACHMENTS_GET("gmail", "messages.attachments.get", 5, true),
+    GMAIL_LABELS_LIST("gmail", "labels.list", 1, true),
+    GMAIL_LABELS_CREATE("gmail", "labels.create", 5, false),
+    GMAIL_HISTORY_LIST("gmail", "history.list", 2, true),
+    GMAIL_GET_PROFILE("gmail", "getProfile", 1, true),
+    CALENDAR_EVENTS_LIST("calendar", "events.list", 1, true),
+    CALENDAR_EVENTS_INSERT("calendar", "events.insert", 1, false);
+
+    private final String api;
+    private final String method;
+    private final int quotaUnits;
+    private final boolean idempotent;
+
+    GoogleApiMethod(String api, String method, int quotaUnits, boolean idempotent) {
+        this.api = api;
+        this.method = method;
+        this.quotaUnits = quotaUnits;
+        this.idempotent = idempotent;
+    }
+
+    public String api() {
+        return api;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    public int quotaUnits() {
+        return quotaUnits;
+    }
+
+    public boolean idempotent() {
+        return idempotent;
+    }
+}
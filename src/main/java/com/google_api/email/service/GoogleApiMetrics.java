@@ -0,0 +1,188 @@
+package com.google_api.email.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters for outbound Google calls, exported through Actuator ({@code /actuator/prometheus}).
+ * Fan-out is the number of API calls (batch parts included) one endpoint invocation made on its own
+ * thread, in tasks it handed off with {@link #propagateFanOut}, or through work it queued and waited for:
+ * outbox operations run under the submitter's counter, and a coalesced batchModify counts toward every
+ * invocation whose change it carried. Calls made after the invocation returned, and background work such
+ * as refreshes, never count toward it.
+ */
+@Component
+@RequiredArgsConstructor
+public class GoogleApiMetrics {
+
+    static final String SUCCESS = "2xx";
+
+    private static final ThreadLocal<AtomicInteger> FAN_OUT = new ThreadLocal<>();
+
+    private final MeterRegistry meterRegistry;
+
+    public <T> T measureFanOut(String endpoint, Supplier<T> call) {
+        AtomicInteger calls = new AtomicInteger();
+        AtomicInteger outer = FAN_OUT.get();
+        FAN_OUT.set(calls);
+        try {
+            return call.get();
+        } finally {
+            restoreFanOut(outer);
+            DistributionSummary.builder("google.api.fanout")
+                    .description("Google API calls per endpoint invocation")
+                    .tag("endpoint", endpoint)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(calls.get());
+        }
+    }
+
+    /**
+     * Wraps {@code task} so the calls it makes count toward the fan-out of the invocation creating it.
+     */
+    static <T> Callable<T> propagateFanOut(Callable<T> task) {
+        AtomicInteger calls = FAN_OUT.get();
+        return () -> {
+            AtomicInteger previous = FAN_OUT.get();
+            FAN_OUT.set(calls);
+            try {
+                return task.call();
+            } finally {
+                restoreFanOut(previous);
+            }
+        };
+    }
+
+    static Runnable propagateFanOut(Runnable task) {
+        AtomicInteger calls = FAN_OUT.get();
+        return () -> {
+            AtomicInteger previous = FAN_OUT.get();
+            FAN_OUT.set(calls);
+            try {
+                task.run();
+            } finally {
+                restoreFanOut(previous);
+            }
+        };
+    }
+
+    /**
+     * The current invocation's fan-out counter, or {@code null}, for work that is queued now and run later.
+     */
+    static AtomicInteger currentFanOut() {
+        return FAN_OUT.get();
+    }
+
+    /**
+     * Runs {@code call} with its API calls counted toward {@code calls}, a counter from {@link #currentFanOut}.
+     */
+    static <T> T withFanOut(AtomicInteger calls, GoogleApiScheduler.GoogleCall<T> call) throws IOException {
+        AtomicInteger previous = FAN_OUT.get();
+        if (calls != null) {
+            FAN_OUT.set(calls);
+        } else {
+            FAN_OUT.remove();
+        }
+        try {
+            return call.call();
+        } finally {
+            restoreFanOut(previous);
+        }
+    }
+
+    /**
+     * Runs {@code call} on behalf of several invocations, e.g. one request carrying all their changes, and
+     * counts its API calls toward each of them.
+     */
+    static <T> T shareFanOut(Collection<AtomicInteger> counters, GoogleApiScheduler.GoogleCall<T> call) throws IOException {
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            return withFanOut(calls, call);
+        } finally {
+            counters.forEach(counter -> counter.addAndGet(calls.get()));
+        }
+    }
+
+    private static void restoreFanOut(AtomicInteger previous) {
+        if (previous != null) {
+            FAN_OUT.set(previous);
+        } else {
+            FAN_OUT.remove();
+        }
+    }
+
+    /**
+     * One logical call as the caller saw it, including quota waits and retries.
+     */
+    void recordCall(GoogleApiMethod method, String status, int retries, long elapsedNanos) {
+        Timer.builder("google.api.requests")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .tag("status", status)
+                .tag("retries", Integer.toString(retries))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void recordBatch(GoogleApiMethod method, String status, int retries, int parts, long elapsedNanos) {
+        Timer.builder("google.api.batch.requests")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .tag("status", status)
+                .tag("retries", Integer.toString(retries))
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(elapsedNanos, TimeUnit.NANOSECONDS);
+        DistributionSummary.builder("google.api.batch.size")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .register(meterRegistry)
+                .record(parts);
+    }
+
+    void recordBatchPartError(GoogleApiMethod method, int statusCode) {
+        Counter.builder("google.api.batch.part.errors")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .tag("status", Integer.toString(statusCode))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Quota is counted when it is taken from the bucket, so retried calls and batch parts are included.
+     */
+    void recordQuota(GoogleApiMethod method, int calls) {
+        Counter.builder("google.api.quota.units")
+                .description("Estimated quota units consumed")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .register(meterRegistry)
+                .increment((double) method.quotaUnits() * calls);
+        AtomicInteger fanOut = FAN_OUT.get();
+        if (fanOut != null) {
+            fanOut.addAndGet(calls);
+        }
+    }
+
+    void recordResponseBytes(GoogleApiMethod method, long bytes) {
+        DistributionSummary.builder("google.api.response.bytes")
+                .baseUnit("bytes")
+                .tag("api", method.api())
+                .tag("method", method.method())
+                .register(meterRegistry)
+                .record(bytes);
+    }
+}
@@ -0,0 +1,301 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.services.AbstractGoogleClientRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google_api.config.AccountContext;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Single gate for every outbound Gmail and Calendar call. Google enforces quota per user, so each account
+ * (the {@link AccountContext} one, else {@code google.accounts.default-id}) has a token bucket per API,
+ * refilled in quota units per second; waiting callers are served by {@link CallPriority} and then arrival
+ * order. Rate-limit responses, and 5xx responses to {@link GoogleApiMethod#idempotent} methods, are retried with
+ * exponential backoff and full jitter; a send or insert that hit a 5xx may already have happened, so it is
+ * not repeated. A rate-limit response also drains that account's bucket so its other callers slow down with it while other accounts
+ * are unaffected. Every call is recorded in {@link GoogleApiMetrics}.
+ */
+@Component
+@RequiredArgsConstructor
+public class GoogleApiScheduler {
+
+    private final GoogleApiMetrics metrics;
+
+    @Value("${google.quota.gmail.units-per-second:250}")
+    private double gmailUnitsPerSecond;
+
+    @Value("${google.quota.gmail.burst:250}")
+    private double gmailBurst;
+
+    @Value("${google.quota.calendar.units-per-second:10}")
+    private double calendarUnitsPerSecond;
+
+    @Value("${google.quota.calendar.burst:20}")
+    private double calendarBurst;
+
+    @Value("${google.quota.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${google.quota.base-backoff:PT0.5S}")
+    private Duration baseBackoff;
+
+    @Value("${google.quota.max-backoff:PT32S}")
+    private Duration maxBackoff;
+
+    @Value("${google.accounts.default-id:user}")
+    private String defaultAccountId;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(GoogleApiScheduler.class);
+
+    private final Map<BucketKey, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    @FunctionalInterface
+    public interface GoogleCall<T> {
+        T call() throws IOException;
+    }
+
+    public <T> T execute(GoogleApiMethod method, CallPriority priority, AbstractGoogleClientRequest<T> request) throws IOException {
+        return execute(method, priority, () -> parse(method, request, request.executeUnparsed()));
+    }
+
+    public <T> T execute(GoogleApiMethod method, CallPriority priority, GoogleCall<T> call) throws IOException {
+        long started = System.nanoTime();
+        for (int attempt = 0; ; attempt++) {
+            acquire(method, 1, priority);
+            try {
+                T result = call.call();
+                metrics.recordCall(method, GoogleApiMetrics.SUCCESS, attempt, System.nanoTime() - started);
+                return result;
+            } catch (GoogleJsonResponseException e) {
+                boolean rateLimited = isRateLimited(e.getStatusCode(), reason(e.getDetails()));
+                if (rateLimited) {
+                    bucket(method).drain();
+                }
+                if (attempt + 1 >= maxAttempts || !retryable(method, rateLimited, e.getStatusCode())) {
+                    metrics.recordCall(method, Integer.toString(e.getStatusCode()), attempt, System.nanoTime() - started);
+                    throw e;
+                }
+                logger.warn(AGENT_EMOJI +"AGENT_QUOTA - {} returned {}, retry {} of {}", method.method(), e.getStatusCode(), attempt + 1, maxAttempts - 1);
+                backoff(attempt);
+            } catch (IOException e) {
+                metrics.recordCall(method, e.getClass().getSimpleName(), attempt, System.nanoTime() - started);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Takes quota for every queued part and sends the batch. Failed parts are reported to the callbacks;
+     * callers re-queue them according to {@link #shouldRetry} and pass the attempt number back in.
+     */
+    public void executeBatch(GoogleApiMethod method, CallPriority priority, BatchRequest batch, int attempt) throws IOException {
+        int parts = batch.size();
+        acquire(method, parts, priority);
+        long started = System.nanoTime();
+        try {
+            batch.execute();
+            metrics.recordBatch(method, GoogleApiMetrics.SUCCESS, attempt, parts, System.nanoTime() - started);
+        } catch (GoogleJsonResponseException e) {
+            metrics.recordBatch(method, Integer.toString(e.getStatusCode()), attempt, parts, System.nanoTime() - started);
+            throw e;
+        } catch (IOException e) {
+            metrics.recordBatch(method, e.getClass().getSimpleName(), attempt, parts, System.nanoTime() - started);
+            throw e;
+        }
+    }
+
+    /**
+     * Takes quota for {@code calls} invocations of {@code method}, e.g. for the parts of a batch request.
+     */
+    public void acquire(GoogleApiMethod method, int calls, CallPriority priority) throws IOException {
+        try {
+            bucket(method).acquire((double) method.quotaUnits() * calls, priority);
+            metrics.recordQuota(method, calls);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + method.method() + " quota");
+        }
+    }
+
+    /**
+     * Whether a failed part of a batch request should be queued again on the given attempt.
+     */
+    public boolean shouldRetry(GoogleApiMethod method, GoogleJsonError error, int attempt) {
+        metrics.recordBatchPartError(method, error.getCode());
+        boolean rateLimited = isRateLimited(error.getCode(), reason(error));
+        if (rateLimited) {
+            bucket(method).drain();
+        }
+        return attempt + 1 < maxAttempts && retryable(method, rateLimited, error.getCode());
+    }
+
+    public void backoff(int attempt) throws IOException {
+        long ceiling = Math.min(maxBackoff.toMillis(), baseBackoff.toMillis() << Math.min(attempt, 20));
+        long sleepMillis = ThreadLocalRandom.current().nextLong(0, ceiling + 1);
+        try {
+            Thread.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during backoff");
+        }
+    }
+
+    private TokenBucket bucket(GoogleApiMethod method) {
+        String accountId = AccountContext.currentAccountId();
+        return buckets.computeIfAbsent(new BucketKey(accountId != null ? accountId : defaultAccountId, method.api()),
+                key -> "gmail".equals(key.api())
+                        ? new TokenBucket(gmailUnitsPerSecond, gmailBurst)
+                        : new TokenBucket(calendarUnitsPerSecond, calendarBurst));
+    }
+
+    // Same as HttpResponse.parseAs, but counts the (decoded) response body on the way through.
+    private <T> T parse(GoogleApiMethod method, AbstractGoogleClientRequest<T> request, HttpResponse response) throws IOException {
+        Class<T> responseClass = request.getResponseClass();
+        InputStream content = response.getStatusCode() == 204 || Void.class.equals(responseClass) ? null : response.getContent();
+        if (content == null) {
+            response.ignore();
+            return null;
+        }
+        CountingInputStream countingContent = new CountingInputStream(content);
+        try {
+            return request.getAbstractGoogleClient().getObjectParser()
+                    .parseAndClose(countingContent, response.getContentCharset(), responseClass);
+        } finally {
+            metrics.recordResponseBytes(method, countingContent.count);
+        }
+    }
+
+    private static boolean isRateLimited(int statusCode, String reason) {
+        return statusCode == 429
+                || (statusCode == 403 && ("rateLimitExceeded".equals(reason) || "userRateLimitExceeded".equals(reason)));
+    }
+
+    private static boolean retryable(GoogleApiMethod method, boolean rateLimited, int statusCode) {
+        return rateLimited || (method.idempotent() && isServerError(statusCode));
+    }
+
+    private static boolean isServerError(int statusCode) {
+        return statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    private static String reason(GoogleJsonError error) {
+        if (error == null || error.getErrors() == null || error.getErrors().isEmpty()) {
+            return null;
+        }
+        return error.getErrors().get(0).getReason();
+    }
+
+    private static final class TokenBucket {
+
+        private final double unitsPerNano;
+        private final double capacity;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(
+                Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+        private double tokens;
+        private long refilledAt = System.nanoTime();
+        private long sequence;
+
+        private TokenBucket(double unitsPerSecond, double capacity) {
+            this.unitsPerNano = unitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        private void acquire(double units, CallPriority priority) throws InterruptedException {
+            lock.lock();
+            Waiter waiter = new Waiter(priority, sequence++);
+            waiters.add(waiter);
+            try {
+                while (true) {
+                    refill();
+                    // A request larger than the burst may run once the bucket is full and leaves it in debt.
+                    double needed = Math.min(units, capacity);
+                    if (waiters.peek() == waiter && tokens >= needed) {
+                        tokens -= units;
+                        waiters.poll();
+                        changed.signalAll();
+                        return;
+                    }
+                    long waitNanos = waiters.peek() == waiter
+                            ? (long) Math.ceil((needed - tokens) / unitsPerNano)
+                            : TimeUnit.MILLISECONDS.toNanos(50);
+                    changed.awaitNanos(Math.max(waitNanos, 1));
+                }
+            } catch (InterruptedException e) {
+                waiters.remove(waiter);
+                changed.signalAll();
+                throw e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void drain() {
+            lock.lock();
+            try {
+                refill();
+                tokens = Math.min(tokens, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilledAt) * unitsPerNano);
+            refilledAt = now;
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private record Waiter(CallPriority priority, long sequence) { }
+
+    private record BucketKey(String accountId, String api) { }
+}
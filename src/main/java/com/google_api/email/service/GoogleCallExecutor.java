@@ -0,0 +1,72 @@
+package com.google_api.email.service;
+
+import com.google_api.config.AccountContext;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs endpoint work on virtual threads so blocking Google calls do not pin servlet threads.
+ * Each endpoint gets its own permit pool ({@code google.concurrency.limits.<endpoint>}, falling back
+ * to {@code google.concurrency.default-limit}) to keep bursts within quota, and its fan-out recorded.
+ * The caller's {@link AccountContext} account travels with the work.
+ */
+@Component
+@RequiredArgsConstructor
+public class GoogleCallExecutor {
+
+    private final Environment environment;
+    private final GoogleApiMetrics metrics;
+
+    @Value("${google.concurrency.default-limit:64}")
+    private int defaultLimit;
+
+    @Value("${google.concurrency.acquire-timeout:PT5S}")
+    private Duration acquireTimeout;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Semaphore> limits = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    public <T> CompletableFuture<T> submit(String endpoint, Supplier<T> call) {
+        Semaphore permits = limits.computeIfAbsent(endpoint, name -> new Semaphore(
+                environment.getProperty("google.concurrency.limits." + name, Integer.class, defaultLimit)));
+
+        return CompletableFuture.supplyAsync(AccountContext.wrap(() -> {
+            try {
+                if (!permits.tryAcquire(acquireTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Concurrency limit reached for " + endpoint);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted waiting for " + endpoint);
+            }
+            try {
+                return metrics.measureFanOut(endpoint, call);
+            } finally {
+                permits.release();
+            }
+        }), executor);
+    }
+
+    public ExecutorService executor() {
+        return executor;
+    }
+}
@@ -0,0 +1,95 @@
+package com.google_api.email.service;
+
+import com.google_api.email.dto.LabelJobDto;
+import com.google_api.email.dto.OutboxOperationDto;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Remove-label jobs run as {@link MailOutbox} operations, so a job survives a restart and is retried; the job
+ * id is the operation id. Progress counters are kept in memory and start over when a job is replayed.
+ */
+@Service
+@RequiredArgsConstructor
+public class LabelJobService {
+
+    private final GMailConnectorService mailService;
+    private final MailOutbox outbox;
+
+    @Value("${gmail.label-jobs.retention:PT1H}")
+    private Duration retention;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(LabelJobService.class);
+
+    private static final String REMOVE_LABEL = "remove-label";
+
+    private final Map<String, LabelJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outbox.register(REMOVE_LABEL, this::runJob);
+    }
+
+    public LabelJobDto submitRemoveLabelJob(String labelName, String folderName, String idempotencyKey) {
+        pruneFinishedJobs();
+
+        MailOutbox.Operation operation = outbox.submit(REMOVE_LABEL, Map.of("labelName", labelName, "folderName", folderName), idempotencyKey);
+        return toDto(operation);
+    }
+
+    public LabelJobDto getJob(String jobId) {
+        MailOutbox.Operation operation = outbox.get(jobId);
+        return operation != null && REMOVE_LABEL.equals(operation.kind()) ? toDto(operation) : null;
+    }
+
+    private String runJob(MailOutbox.Operation operation) throws IOException {
+        LabelJob job = jobs.computeIfAbsent(operation.operationId(), id -> new LabelJob());
+        String result;
+        try {
+            result = mailService.removeLabelAndMoveToInbox(operation.request("labelName"), operation.request("folderName"), new GMailConnectorService.BulkProgress() {
+                @Override
+                public void onTotal(int totalMessages) {
+                    job.totalMessages = totalMessages;
+                }
+
+                @Override
+                public void onProcessed(int processedMessages) {
+                    job.processedMessages = processedMessages;
+                }
+            });
+        } finally {
+            job.finishedAtNanos = System.nanoTime();
+        }
+        logger.info(AGENT_EMOJI +"AGENT_LABEL_JOB - Job {} finished: {}", operation.operationId(), result);
+        return result;
+    }
+
+    private LabelJobDto toDto(MailOutbox.Operation operation) {
+        LabelJob job = jobs.getOrDefault(operation.operationId(), LabelJob.NONE);
+        OutboxOperationDto state = operation.toDto();
+        String message = state.error() != null && "FAILED".equals(state.status()) ? state.error() : state.result();
+        return new LabelJobDto(state.operationId(), state.status(), operation.request("labelName"), operation.request("folderName"),
+                job.totalMessages, job.processedMessages, message);
+    }
+
+    private void pruneFinishedJobs() {
+        long now = System.nanoTime();
+        jobs.values().removeIf(job -> job.finishedAtNanos != 0 && now - job.finishedAtNanos > retention.toNanos());
+    }
+
+    private static final class LabelJob {
+        private static final LabelJob NONE = new LabelJob();
+
+        private volatile int totalMessages;
+        private volatile int processedMessages;
+        private volatile long finishedAtNanos;
+    }
+}
@@ -0,0 +1,223 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.gmail.model.BatchModifyMessagesRequest;
+import com.google.api.services.gmail.model.ModifyMessageRequest;
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Collects label changes for {@code gmail.modify.coalesce-window} and writes them as one modify per
+ * message. Messages of one account that end up with the same add/remove sets share a single batchModify call;
+ * batches are sent concurrently on virtual threads, and a batch rejected with a client error is retried message by
+ * message so one bad id only fails its own caller. Applied changes are mirrored into the {@link MailSearchIndex} and the {@link UnreadEmailCache}.
+ */
+@Component
+@RequiredArgsConstructor
+public class LabelMutationCoalescer {
+
+    private static final int BATCH_MODIFY_LIMIT = 1000;
+
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+    private final MailSearchIndex mailSearchIndex;
+    private final UnreadEmailCache unreadEmailCache;
+
+    @Value("${gmail.modify.coalesce-window:PT0.02S}")
+    private Duration coalesceWindow;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(LabelMutationCoalescer.class);
+
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private Map<String, PendingModify> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    // The scheduled flush is cancelled and run here instead, so changes still pending are sent before the senders stop.
+    @PreDestroy
+    void shutdown() throws InterruptedException {
+        flusher.shutdownNow();
+        flusher.awaitTermination(5, TimeUnit.SECONDS);
+        flush();
+        senders.shutdown();
+        if (!senders.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn(AGENT_EMOJI +"AGENT_MODIFY - Label changes still in flight at shutdown");
+        }
+    }
+
+    public CompletableFuture<Void> modify(String messageId, Collection<String> addLabelIds, Collection<String> removeLabelIds) {
+        GoogleAccount account = accounts.current();
+        synchronized (this) {
+            PendingModify modify = pending.computeIfAbsent(account.id() + "/" + messageId, key -> new PendingModify(account, messageId));
+            modify.merge(addLabelIds, removeLabelIds);
+            AtomicInteger fanOut = GoogleApiMetrics.currentFanOut();
+            if (fanOut != null) {
+                modify.fanOuts.add(fanOut);
+            }
+            if (!flushScheduled) {
+                flushScheduled = true;
+                flusher.schedule(this::flush, coalesceWindow.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return modify.future;
+        }
+    }
+
+    public void modifyAndWait(String messageId, Collection<String> addLabelIds, Collection<String> removeLabelIds) throws IOException {
+        await(modify(messageId, addLabelIds, removeLabelIds));
+    }
+
+    public static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+    }
+
+    private void flush() {
+        Map<String, PendingModify> drained;
+        synchronized (this) {
+            drained = pending;
+            pending = new LinkedHashMap<>();
+            flushScheduled = false;
+        }
+
+        Map<ChangeSet, List<PendingModify>> groups = new LinkedHashMap<>();
+        for (PendingModify modify : drained.values()) {
+            // Nothing left to change, and Gmail rejects a modify without labels.
+            if (modify.addLabelIds.isEmpty() && modify.removeLabelIds.isEmpty()) {
+                modify.future.complete(null);
+                continue;
+            }
+            groups.computeIfAbsent(new ChangeSet(modify.account, modify.addLabelIds(), modify.removeLabelIds()), changeSet -> new ArrayList<>()).add(modify);
+        }
+
+        // Chunks go out concurrently, so one throttled account or backoff does not hold up the rest.
+        groups.forEach((changeSet, modifies) -> {
+            for (int from = 0; from < modifies.size(); from += BATCH_MODIFY_LIMIT) {
+                List<PendingModify> chunk = modifies.subList(from, Math.min(from + BATCH_MODIFY_LIMIT, modifies.size()));
+                senders.execute(() -> AccountContext.callAs(changeSet.account().id(), () -> {
+                    sendChunk(changeSet, chunk);
+                    return null;
+                }));
+            }
+        });
+    }
+
+    private void sendChunk(ChangeSet changeSet, List<PendingModify> chunk) {
+        Set<AtomicInteger> fanOuts = new HashSet<>();
+        chunk.forEach(modify -> fanOuts.addAll(modify.fanOuts));
+        try {
+            GoogleApiMetrics.shareFanOut(fanOuts, () -> {
+                send(changeSet, chunk);
+                return null;
+            });
+            List<String> messageIds = chunk.stream().map(modify -> modify.messageId).toList();
+            mailSearchIndex.updateLabels(changeSet.account().id(), messageIds, changeSet.addLabelIds(), changeSet.removeLabelIds());
+            unreadEmailCache.updateLabels(changeSet.account().id(), messageIds, changeSet.addLabelIds(), changeSet.removeLabelIds());
+            chunk.forEach(modify -> modify.future.complete(null));
+        } catch (GoogleJsonResponseException e) {
+            if (chunk.size() > 1 && isClientError(e.getStatusCode())) {
+                // A client error in a merged batch may come from one caller's id: retry each message on its own
+                // so only the offending caller sees the failure.
+                logger.warn(AGENT_EMOJI +"AGENT_MODIFY - batchModify of {} messages returned {}, retrying one by one", chunk.size(), e.getStatusCode());
+                chunk.forEach(modify -> sendChunk(changeSet, List.of(modify)));
+                return;
+            }
+            fail(chunk, e);
+        } catch (IOException | RuntimeException e) {
+            fail(chunk, e);
+        }
+    }
+
+    // 403 and 429 are quota or permission answers for the whole call; splitting them only multiplies requests.
+    private static boolean isClientError(int statusCode) {
+        return statusCode >= 400 && statusCode < 500 && statusCode != 403 && statusCode != 429;
+    }
+
+    private static void fail(List<PendingModify> chunk, Exception e) {
+        logger.error(AGENT_EMOJI +"AGENT_MODIFY - Error applying label changes to {} messages: {}", chunk.size(), e.getMessage());
+        chunk.forEach(modify -> modify.future.completeExceptionally(e));
+    }
+
+    private void send(ChangeSet changeSet, List<PendingModify> chunk) throws IOException {
+        if (chunk.size() == 1) {
+            ModifyMessageRequest mods = new ModifyMessageRequest()
+                    .setAddLabelIds(changeSet.addLabelIds())
+                    .setRemoveLabelIds(changeSet.removeLabelIds());
+            apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_MODIFY, CallPriority.NORMAL, changeSet.account().gmail().users().messages().modify(changeSet.account().email(), chunk.get(0).messageId, mods));
+            return;
+        }
+
+        BatchModifyMessagesRequest mods = new BatchModifyMessagesRequest()
+                .setIds(chunk.stream().map(modify -> modify.messageId).toList())
+                .setAddLabelIds(changeSet.addLabelIds())
+                .setRemoveLabelIds(changeSet.removeLabelIds());
+        apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_BATCH_MODIFY, CallPriority.NORMAL, changeSet.account().gmail().users().messages().batchModify(changeSet.account().email(), mods));
+    }
+
+    private record ChangeSet(GoogleAccount account, List<String> addLabelIds, List<String> removeLabelIds) { }
+
+    private static final class PendingModify {
+        private final GoogleAccount account;
+        private final String messageId;
+        private final Set<String> addLabelIds = new LinkedHashSet<>();
+        private final Set<String> removeLabelIds = new LinkedHashSet<>();
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        // Fan-out counters of the invocations waiting on this change; guarded by the coalescer.
+        private final Set<AtomicInteger> fanOuts = new HashSet<>();
+
+        private PendingModify(GoogleAccount account, String messageId) {
+            this.account = account;
+            this.messageId = messageId;
+        }
+
+        // Later requests win: adding a label cancels an earlier pending removal of it and vice versa.
+        private void merge(Collection<String> add, Collection<String> remove) {
+            if (add != null) {
+                removeLabelIds.removeAll(add);
+                addLabelIds.addAll(add);
+            }
+            if (remove != null) {
+                addLabelIds.removeAll(remove);
+                removeLabelIds.addAll(remove);
+            }
+        }
+
+        private List<String> addLabelIds() {
+            return new ArrayList<>(new TreeSet<>(addLabelIds));
+        }
+
+        private List<String> removeLabelIds() {
+            return new ArrayList<>(new TreeSet<>(removeLabelIds));
+        }
+    }
+}
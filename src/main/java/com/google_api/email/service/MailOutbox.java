@@ -0,0 +1,366 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google_api.config.AccountContext;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.OutboxOperationDto;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Durable queue for outbound Gmail writes. {@link #submit} records the operation in the {@link MutationJournal}
+ * and returns once that record is synced; {@code gmail.outbox.workers} workers then drain up to
+ * {@code gmail.outbox.batch-size} operations at a time, running a batch concurrently so its label changes
+ * coalesce. Failures other than Google 4xx responses are retried {@code gmail.outbox.max-attempts} times with
+ * exponential backoff from {@code gmail.outbox.retry-backoff}, and a 404 once, since it may come from a stale
+ * cached label id that the handler has just dropped; unfinished operations are replayed on startup.
+ * Operation ids double as idempotency keys per account and are remembered for {@code gmail.outbox.retention}.
+ * Handlers must tolerate being run again: a crash can land between a Google call and its journal record.
+ */
+@Service
+@RequiredArgsConstructor
+public class MailOutbox {
+
+    private final MutationJournal journal;
+    private final GoogleAccountRegistry accounts;
+
+    @Value("${gmail.outbox.workers:4}")
+    private int workers;
+
+    @Value("${gmail.outbox.batch-size:50}")
+    private int batchSize;
+
+    @Value("${gmail.outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${gmail.outbox.retry-backoff:PT2S}")
+    private Duration retryBackoff;
+
+    @Value("${gmail.outbox.retention:PT24H}")
+    private Duration retention;
+
+    @Value("${gmail.outbox.compact-after:10000}")
+    private int compactAfter;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MailOutbox.class);
+
+    @FunctionalInterface
+    public interface Handler {
+        /**
+         * Applies the operation and returns its result. An {@link IOException} is retried, a
+         * {@link RuntimeException} fails the operation at once.
+         */
+        String apply(Operation operation) throws IOException;
+    }
+
+    private final Map<String, Handler> handlers = new ConcurrentHashMap<>();
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final BlockingQueue<Operation> ready = new LinkedBlockingQueue<>();
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService workerThreads = Executors.newVirtualThreadPerTaskExecutor();
+    private final AtomicInteger appendsSinceCompaction = new AtomicInteger();
+
+    @PostConstruct
+    void load() throws IOException {
+        for (MutationJournal.Entry entry : journal.replay()) {
+            String key = entry.accountId() + "/" + entry.operationId();
+            switch (entry.type()) {
+                case "QUEUED" -> {
+                    // A compacted pending operation is a single QUEUED line that still carries its steps.
+                    Operation operation = new Operation(entry.operationId(), entry.accountId(), entry.kind(), entry.request());
+                    if (entry.steps() != null) {
+                        operation.steps.putAll(entry.steps());
+                    }
+                    operations.put(key, operation);
+                }
+                case "STEP" -> {
+                    Operation operation = operations.get(key);
+                    if (operation != null && entry.steps() != null) {
+                        operation.steps.putAll(entry.steps());
+                    }
+                }
+                case "DONE" -> {
+                    Operation operation = operations.computeIfAbsent(key,
+                            id -> new Operation(entry.operationId(), entry.accountId(), entry.kind(), entry.request()));
+                    if (entry.steps() != null) {
+                        operation.steps.putAll(entry.steps());
+                    }
+                    operation.finish(entry.status(), entry.result(), entry.error(), entry.atMillis());
+                }
+                default -> logger.warn(AGENT_EMOJI +"AGENT_OUTBOX - Unknown journal entry type {}", entry.type());
+            }
+        }
+        pruneFinished();
+        journal.rewrite(this::snapshot);
+        for (Operation operation : operations.values()) {
+            if (!operation.isFinished()) {
+                ready.add(operation);
+            }
+        }
+        logger.info(AGENT_EMOJI +"AGENT_OUTBOX - Replayed journal, {} operations pending", ready.size());
+    }
+
+    // Handlers register from their services' @PostConstruct, so draining waits until the context is ready.
+    @EventListener(ApplicationReadyEvent.class)
+    void start() {
+        for (int i = 0; i < workers; i++) {
+            workerThreads.execute(this::drain);
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        retryScheduler.shutdownNow();
+        workerThreads.shutdownNow();
+    }
+
+    public void register(String kind, Handler handler) {
+        handlers.put(kind, handler);
+    }
+
+    /**
+     * Durably queues an operation for the current account. A repeated {@code idempotencyKey} returns the
+     * operation it first created; reusing it for a different request is rejected.
+     */
+    public Operation submit(String kind, Map<String, String> request, String idempotencyKey) {
+        pruneFinished();
+        String accountId = accounts.current().id();
+        String operationId = idempotencyKey != null && !idempotencyKey.isBlank() ? idempotencyKey : UUID.randomUUID().toString();
+        Map<String, String> fields = new HashMap<>(request);
+        fields.values().removeIf(Objects::isNull);
+        Operation created = new Operation(operationId, accountId, kind, Map.copyOf(fields));
+        Operation operation = operations.putIfAbsent(created.key(), created);
+        if (operation != null) {
+            if (!operation.kind.equals(kind) || !operation.request.equals(created.request)) {
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Idempotency key reused for a different request");
+            }
+            return operation;
+        }
+
+        try {
+            journal.appendAndWait(created.entry("QUEUED"));
+        } catch (IOException e) {
+            operations.remove(created.key());
+            logger.error(AGENT_EMOJI +"AGENT_OUTBOX - Could not journal {} operation: {}", kind, e.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Could not record the request durably");
+        }
+        appendsSinceCompaction.incrementAndGet();
+        ready.add(created);
+        return created;
+    }
+
+    /**
+     * The current account's operation with this id, or {@code null}.
+     */
+    public Operation get(String operationId) {
+        return operations.get(accounts.current().id() + "/" + operationId);
+    }
+
+    private void drain() {
+        List<Operation> batch = new ArrayList<>(batchSize);
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(ready.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ready.drainTo(batch, batchSize - 1);
+            List<CompletableFuture<Void>> runs = new ArrayList<>(batch.size());
+            for (Operation operation : batch) {
+                runs.add(CompletableFuture.runAsync(() -> run(operation), workerThreads));
+            }
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+            batch.clear();
+            compactIfNeeded();
+        }
+    }
+
+    private void run(Operation operation) {
+        Handler handler = handlers.get(operation.kind);
+        if (handler == null) {
+            complete(operation, "FAILED", null, "No handler for " + operation.kind);
+            return;
+        }
+        operation.status = "RUNNING";
+        operation.attempts++;
+        try {
+            String result = AccountContext.callAs(operation.accountId,
+                    () -> GoogleApiMetrics.withFanOut(operation.fanOut, () -> handler.apply(operation)));
+            complete(operation, "COMPLETED", result, null);
+        } catch (IOException e) {
+            if (isPermanent(e, operation.attempts) || operation.attempts >= maxAttempts) {
+                complete(operation, "FAILED", null, e.getMessage());
+                return;
+            }
+            long delayMillis = retryBackoff.toMillis() << Math.min(operation.attempts - 1, 10);
+            operation.status = "RETRYING";
+            operation.error = e.getMessage();
+            logger.warn(AGENT_EMOJI +"AGENT_OUTBOX - {} {} failed (attempt {} of {}), retrying in {} ms: {}",
+                    operation.kind, operation.operationId, operation.attempts, maxAttempts, delayMillis, e.getMessage());
+            retryScheduler.schedule(() -> ready.add(operation), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            complete(operation, "FAILED", null, e.getMessage());
+        }
+    }
+
+    private void complete(Operation operation, String status, String result, String error) {
+        operation.finish(status, result, error, System.currentTimeMillis());
+        // Completion is not waited for: if it is lost the operation is replayed, which handlers tolerate.
+        journal.append(operation.entry("DONE"));
+        appendsSinceCompaction.incrementAndGet();
+        if ("FAILED".equals(status)) {
+            logger.error(AGENT_EMOJI +"AGENT_OUTBOX - {} {} failed after {} attempts: {}",
+                    operation.kind, operation.operationId, operation.attempts, error);
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (appendsSinceCompaction.get() < compactAfter) {
+            return;
+        }
+        synchronized (appendsSinceCompaction) {
+            if (appendsSinceCompaction.get() < compactAfter) {
+                return;
+            }
+            pruneFinished();
+            try {
+                journal.rewrite(this::snapshot);
+                appendsSinceCompaction.set(0);
+            } catch (IOException e) {
+                logger.error(AGENT_EMOJI +"AGENT_OUTBOX - Journal compaction failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private List<MutationJournal.Entry> snapshot() {
+        List<MutationJournal.Entry> entries = new ArrayList<>(operations.size());
+        for (Operation operation : operations.values()) {
+            entries.add(operation.entry(operation.isFinished() ? "DONE" : "QUEUED"));
+        }
+        return entries;
+    }
+
+    private void pruneFinished() {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        operations.values().removeIf(operation -> operation.isFinished() && operation.finishedAtMillis < cutoff);
+    }
+
+    private static boolean isPermanent(IOException e, int attempts) {
+        if (!(e instanceof GoogleJsonResponseException response)) {
+            return false;
+        }
+        int statusCode = response.getStatusCode();
+        if (statusCode == 404) {
+            return attempts > 1;
+        }
+        return statusCode >= 400 && statusCode < 500 && statusCode != 408 && statusCode != 429;
+    }
+
+    public final class Operation {
+        private final String operationId;
+        private final String accountId;
+        private final String kind;
+        private final Map<String, String> request;
+        private final Map<String, String> steps = new ConcurrentHashMap<>();
+        private final CompletableFuture<String> outcome = new CompletableFuture<>();
+        // The submitting invocation's fan-out counter; not journaled, so replayed operations count toward none.
+        private final AtomicInteger fanOut = GoogleApiMetrics.currentFanOut();
+        private volatile String status = "QUEUED";
+        private volatile int attempts;
+        private volatile String result;
+        private volatile String error;
+        private volatile long finishedAtMillis;
+
+        private Operation(String operationId, String accountId, String kind, Map<String, String> request) {
+            this.operationId = operationId;
+            this.accountId = accountId;
+            this.kind = kind;
+            this.request = request != null ? request : Map.of();
+        }
+
+        public String operationId() {
+            return operationId;
+        }
+
+        public String kind() {
+            return kind;
+        }
+
+        public String request(String name) {
+            return request.get(name);
+        }
+
+        public String step(String name) {
+            return steps.get(name);
+        }
+
+        /**
+         * Records the result of a step that must not be repeated, such as a sent message's id. It is kept in
+         * memory first, so a failed journal write still prevents a repeat within this process.
+         */
+        public void checkpoint(String name, String value) throws IOException {
+            steps.put(name, value);
+            journal.appendAndWait(new MutationJournal.Entry("STEP", operationId, accountId, kind, null,
+                    Map.of(name, value), null, null, null, System.currentTimeMillis()));
+            appendsSinceCompaction.incrementAndGet();
+        }
+
+        /**
+         * Completes with the handler's result, or {@code "failure: <reason>"} once the operation has failed.
+         */
+        public CompletableFuture<String> outcome() {
+            return outcome;
+        }
+
+        public OutboxOperationDto toDto() {
+            return new OutboxOperationDto(operationId, kind, status, attempts, result, error);
+        }
+
+        boolean isFinished() {
+            return finishedAtMillis != 0;
+        }
+
+        private String key() {
+            return accountId + "/" + operationId;
+        }
+
+        private void finish(String status, String result, String error, long finishedAtMillis) {
+            this.status = status;
+            this.result = result;
+            this.error = error;
+            this.finishedAtMillis = finishedAtMillis;
+            outcome.complete("COMPLETED".equals(status) ? result : "failure: " + error);
+        }
+
+        private MutationJournal.Entry entry(String type) {
+            return new MutationJournal.Entry(type, operationId, accountId, kind, request, Map.copyOf(steps),
+                    isFinished() ? status : null, result, error, isFinished() ? finishedAtMillis : System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.google_api.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.MailSearchDto;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Local inverted index over every message the service has mapped, so "have we seen mail from X about Y"
+ * is answered without a Gmail round trip. Terms are field-prefixed ({@code w:} any text, {@code f:} from,
+ * {@code t:} recipients, {@code l:} label id, {@code a:} account) and map to sorted doc-id postings; a query
+ * intersects the postings of all its terms and is always scoped to one account. Messages are persisted to an append-only NDJSON log
+ * ({@code gmail.index.file}) that is replayed on startup and compacted once superseded entries dominate.
+ * Labels follow fetches and the label changes this service makes itself. At most {@code gmail.index.max-messages}
+ * messages are kept; beyond that the oldest received are dropped.
+ */
+@Component
+@RequiredArgsConstructor
+public class MailSearchIndex {
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${gmail.index.file:index/messages.ndjson}")
+    private String indexFile;
+
+    @Value("${gmail.index.max-messages:100000}")
+    private int maxMessages;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MailSearchIndex.class);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Entry> docs = new ArrayList<>();
+    private final Map<String, Integer> docIdsByMessageId = new HashMap<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final BitSet superseded = new BitSet();
+    private Path logPath;
+
+    @PostConstruct
+    void load() throws IOException {
+        logPath = Path.of(indexFile).toAbsolutePath();
+        Files.createDirectories(logPath.getParent());
+        if (!Files.exists(logPath)) {
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(logPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    Entry entry = objectMapper.readValue(line, Entry.class);
+                    // Lines written before entries carried an account are dropped and re-indexed on the next fetch.
+                    if (entry.accountId() != null && entry.message() != null) {
+                        add(entry);
+                    }
+                }
+            }
+        }
+        evictIfNeeded();
+        compactIfNeeded();
+        logger.info(AGENT_EMOJI +"AGENT_INDEX - Loaded {} messages into the search index", docIdsByMessageId.size());
+    }
+
+    /**
+     * Adds or replaces messages; unchanged messages are skipped so repeated fetches do not grow the log.
+     */
+    public void index(String accountId, Collection<GmailDto> gmailDtos) {
+        List<Entry> changed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (GmailDto dto : gmailDtos) {
+                Entry entry = new Entry(accountId, dto);
+                Integer existing = docIdsByMessageId.get(entry.key());
+                if (existing == null || !docs.get(existing).equals(entry)) {
+                    add(entry);
+                    changed.add(entry);
+                }
+            }
+            if (!changed.isEmpty()) {
+                append(changed);
+                evictIfNeeded();
+                compactIfNeeded();
+            }
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_INDEX - Error persisting {} messages: {}", changed.size(), e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a label change made upstream to the indexed copies of {@code messageIds}; messages that were
+     * never indexed are ignored.
+     */
+    public void updateLabels(String accountId, Collection<String> messageIds, Collection<String> addLabelIds, Collection<String> removeLabelIds) {
+        List<Entry> changed = new ArrayList<>();
+        lock.writeLock().lock();
+        try {
+            for (String messageId : messageIds) {
+                Integer existing = docIdsByMessageId.get(accountId + "/" + messageId);
+                if (existing == null) {
+                    continue;
+                }
+                GmailDto dto = docs.get(existing).message();
+                GmailDto updated = dto.withLabels(addLabelIds, removeLabelIds);
+                if (updated != dto) {
+                    Entry entry = new Entry(accountId, updated);
+                    add(entry);
+                    changed.add(entry);
+                }
+            }
+            if (!changed.isEmpty()) {
+                append(changed);
+                compactIfNeeded();
+            }
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_INDEX - Error persisting label changes of {} messages: {}", changed.size(), e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Messages of {@code accountId} matching every given criterion, newest first. {@code text} is matched word
+     * by word against subject, snippet, sender and recipients; {@code from}/{@code to} against the addresses only.
+     */
+    public MailSearchDto search(String accountId, String text, String from, String to, String labelId, Long afterMillis, Long beforeMillis, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add("a:" + accountId);
+        tokens(text, "w:", terms);
+        tokens(from, "f:", terms);
+        tokens(to, "t:", terms);
+        if (labelId != null && !labelId.isBlank()) {
+            terms.add("l:" + labelId.toLowerCase(Locale.ROOT));
+        }
+
+        lock.readLock().lock();
+        try {
+            List<GmailDto> matches = new ArrayList<>();
+            for (int docId : match(terms)) {
+                GmailDto dto = docs.get(docId).message();
+                long received = dto.receivedAt() != null ? dto.receivedAt().toInstant().toEpochMilli() : Long.MIN_VALUE;
+                if ((afterMillis == null || received >= afterMillis) && (beforeMillis == null || received < beforeMillis)) {
+                    matches.add(dto);
+                }
+            }
+            matches.sort(Comparator.comparing(GmailDto::receivedAt, Comparator.nullsLast(Comparator.reverseOrder())));
+            return new MailSearchDto(matches.size(), matches.subList(0, Math.min(limit, matches.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int[] match(Set<String> terms) {
+        List<Postings> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            Postings list = postings.get(term);
+            if (list == null) {
+                return new int[0];
+            }
+            lists.add(list);
+        }
+        lists.sort(Comparator.comparingInt(list -> list.size));
+
+        // Walk the shortest list, skip superseded docs and probe the others for the rest.
+        Postings shortest = lists.get(0);
+        int[] result = new int[shortest.size];
+        int count = 0;
+        candidates:
+        for (int i = 0; i < shortest.size; i++) {
+            int docId = shortest.docIds[i];
+            if (superseded.get(docId)) {
+                continue;
+            }
+            for (int l = 1; l < lists.size(); l++) {
+                if (!lists.get(l).contains(docId)) {
+                    continue candidates;
+                }
+            }
+            result[count++] = docId;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private BitSet live() {
+        BitSet live = new BitSet(docs.size());
+        live.set(0, docs.size());
+        live.andNot(superseded);
+        return live;
+    }
+
+    private void add(Entry entry) {
+        Integer previous = docIdsByMessageId.get(entry.key());
+        if (previous != null) {
+            superseded.set(previous);
+        }
+        int docId = docs.size();
+        docs.add(entry);
+        docIdsByMessageId.put(entry.key(), docId);
+
+        GmailDto dto = entry.message();
+        Set<String> terms = new LinkedHashSet<>();
+        terms.add("a:" + entry.accountId());
+        tokens(dto.subject(), "w:", terms);
+        tokens(dto.snippet(), "w:", terms);
+        tokens(dto.from(), "w:", terms);
+        tokens(dto.from(), "f:", terms);
+        if (dto.recipients() != null) {
+            for (String recipient : dto.recipients()) {
+                tokens(recipient, "w:", terms);
+                tokens(recipient, "t:", terms);
+            }
+        }
+        if (dto.labelIds() != null) {
+            for (String labelId : dto.labelIds()) {
+                terms.add("l:" + labelId.toLowerCase(Locale.ROOT));
+            }
+        }
+        for (String term : terms) {
+            postings.computeIfAbsent(term, key -> new Postings()).add(docId);
+        }
+    }
+
+    private void append(List<Entry> changed) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(logPath, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Entry entry : changed) {
+                writer.write(objectMapper.writeValueAsString(entry));
+                writer.newLine();
+            }
+        }
+    }
+
+    // Drops the oldest received messages down to 90% of the limit, so the sort is not paid on every insert.
+    // Dropped docs count as superseded and leave the log with the next compaction.
+    private void evictIfNeeded() {
+        if (docIdsByMessageId.size() <= maxMessages) {
+            return;
+        }
+        List<Integer> liveDocIds = new ArrayList<>(docIdsByMessageId.values());
+        liveDocIds.sort(Comparator.comparing((Integer docId) -> docs.get(docId).message().receivedAt(), Comparator.nullsFirst(Comparator.naturalOrder())));
+        int evict = docIdsByMessageId.size() - maxMessages * 9 / 10;
+        for (int docId : liveDocIds.subList(0, evict)) {
+            superseded.set(docId);
+            docIdsByMessageId.remove(docs.get(docId).key());
+        }
+        logger.info(AGENT_EMOJI +"AGENT_INDEX - Dropped {} oldest messages from the search index", evict);
+    }
+
+    // Rebuilds the log and the in-memory structures from live docs once more than half are superseded.
+    private void compactIfNeeded() throws IOException {
+        if (superseded.cardinality() * 2 <= docs.size() || docs.isEmpty()) {
+            return;
+        }
+        List<Entry> liveDocs = new ArrayList<>(docIdsByMessageId.size());
+        live().stream().forEach(docId -> liveDocs.add(docs.get(docId)));
+
+        docs.clear();
+        docIdsByMessageId.clear();
+        postings.clear();
+        superseded.clear();
+        liveDocs.forEach(this::add);
+
+        Path tmp = logPath.resolveSibling(logPath.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Entry entry : liveDocs) {
+                writer.write(objectMapper.writeValueAsString(entry));
+                writer.newLine();
+            }
+        }
+        Files.move(tmp, logPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Lower-cased alphanumeric words; e-mail addresses are also indexed whole so they can be matched exactly.
+    private static void tokens(String value, String prefix, Set<String> out) {
+        if (value == null || value.isBlank()) {
+            return;
+        }
+        String lower = value.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean wordChar = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                out.add(prefix + lower.substring(start, i));
+                start = -1;
+            }
+        }
+        for (String part : lower.split("[\\s<>,;\"']+")) {
+            if (part.indexOf('@') > 0) {
+                out.add(prefix + part);
+            }
+        }
+    }
+
+    private record Entry(String accountId, GmailDto message) {
+
+        String key() {
+            return accountId + "/" + message.messageId();
+        }
+    }
+
+    private static final class Postings {
+        private int[] docIds = new int[4];
+        private int size;
+
+        // Doc ids are assigned in increasing order, so appending keeps the list sorted.
+        private void add(int docId) {
+            if (size == docIds.length) {
+                docIds = Arrays.copyOf(docIds, size * 2);
+            }
+            docIds[size++] = docId;
+        }
+
+        private boolean contains(int docId) {
+            return Arrays.binarySearch(docIds, 0, size, docId) >= 0;
+        }
+    }
+}
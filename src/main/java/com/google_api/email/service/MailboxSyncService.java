@@ -0,0 +1,184 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.services.gmail.model.History;
+import com.google.api.services.gmail.model.HistoryMessageAdded;
+import com.google.api.services.gmail.model.ListHistoryResponse;
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.GmailDto;
+import com.google_api.email.dto.MailboxSyncDto;
+import com.google_api.email.mapper.GmailMapper;
+import com.google_api.email.mapper.MessageProjection;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Incremental inbox sync. The last seen historyId is kept in a local checkpoint file per account
+ * ({@code gmail.sync.checkpoint-file} suffixed with the account id); each sync only asks Gmail for the
+ * history since that id. Syncs of one account are serialized. A missing or expired checkpoint (404 from
+ * history.list) falls back to a full resync of the unread inbox.
+ */
+@Service
+@RequiredArgsConstructor
+public class MailboxSyncService {
+
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+    private final GmailMapper gmailMapper;
+    private final GmailBatchFetcher batchFetcher;
+    private final MailSearchIndex mailSearchIndex;
+
+    @Value("${gmail.sync.checkpoint-file:sync/history-checkpoint}")
+    private String checkpointFile;
+
+    @Value("${gmail.sync.full-resync-limit:500}")
+    private int fullResyncLimit;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MailboxSyncService.class);
+
+    private final Map<String, Object> syncLocks = new ConcurrentHashMap<>();
+
+    public MailboxSyncDto syncInbox() {
+        GoogleAccount account = accounts.current();
+        synchronized (syncLocks.computeIfAbsent(account.id(), id -> new Object())) {
+            return syncInbox(account);
+        }
+    }
+
+    private MailboxSyncDto syncInbox(GoogleAccount account) {
+        BigInteger startHistoryId = null;
+        try {
+            startHistoryId = readCheckpoint(account);
+            if (startHistoryId == null) {
+                return fullResync(account);
+            }
+            try {
+                return incrementalSync(account, startHistoryId);
+            } catch (GoogleJsonResponseException e) {
+                if (e.getStatusCode() != 404) {
+                    throw e;
+                }
+                logger.info(AGENT_EMOJI +"AGENT_SYNC - History id {} expired, running full resync", startHistoryId);
+                return fullResync(account);
+            }
+        } catch (IOException e) {
+            logger.error(AGENT_EMOJI +"AGENT_SYNC - Error syncing mailbox: {}", e.getMessage());
+            return new MailboxSyncDto(false, startHistoryId != null ? startHistoryId.toString() : null, Collections.emptyList());
+        }
+    }
+
+    private MailboxSyncDto incrementalSync(GoogleAccount account, BigInteger startHistoryId) throws IOException {
+        Set<String> addedIds = new LinkedHashSet<>();
+        BigInteger latestHistoryId = startHistoryId;
+        String pageToken = null;
+
+        do {
+            ListHistoryResponse response = apiScheduler.execute(GoogleApiMethod.GMAIL_HISTORY_LIST, CallPriority.NORMAL, account.gmail().users().history().list(account.email())
+                    .setStartHistoryId(startHistoryId)
+                    .setHistoryTypes(List.of("messageAdded"))
+                    .setLabelId("INBOX")
+                    .setPageToken(pageToken)
+                    .setFields("history/messagesAdded/message/id,historyId,nextPageToken"));
+            if (response.getHistory() != null) {
+                for (History history : response.getHistory()) {
+                    if (history.getMessagesAdded() == null) {
+                        continue;
+                    }
+                    for (HistoryMessageAdded added : history.getMessagesAdded()) {
+                        addedIds.add(added.getMessage().getId());
+                    }
+                }
+            }
+            if (response.getHistoryId() != null) {
+                latestHistoryId = response.getHistoryId();
+            }
+            pageToken = response.getNextPageToken();
+        } while (pageToken != null);
+
+        List<GmailDto> gmailDtos = fetchUnread(account, new ArrayList<>(addedIds));
+        writeCheckpoint(account, latestHistoryId);
+        logger.info(AGENT_EMOJI +"AGENT_SYNC - {} new unread messages since history id {}", gmailDtos.size(), startHistoryId);
+        return new MailboxSyncDto(false, latestHistoryId.toString(), gmailDtos);
+    }
+
+    private MailboxSyncDto fullResync(GoogleAccount account) throws IOException {
+        // Read the profile first so nothing that arrives during the listing falls between the two.
+        BigInteger historyId = apiScheduler.execute(GoogleApiMethod.GMAIL_GET_PROFILE, CallPriority.NORMAL, account.gmail().users().getProfile(account.email()).setFields("historyId")).getHistoryId();
+
+        List<String> messageIds = new ArrayList<>();
+        String pageToken = null;
+        do {
+            ListMessagesResponse response = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_LIST, CallPriority.NORMAL, account.gmail().users().messages().list(account.email())
+                    .setQ("is:unread")
+                    .setLabelIds(List.of("INBOX"))
+                    .setMaxResults((long) Math.min(500, fullResyncLimit - messageIds.size()))
+                    .setPageToken(pageToken)
+                    .setFields(MessageProjection.LIST_FIELDS));
+            if (response.getMessages() != null) {
+                response.getMessages().forEach(message -> messageIds.add(message.getId()));
+            }
+            pageToken = response.getNextPageToken();
+        } while (pageToken != null && messageIds.size() < fullResyncLimit);
+
+        List<GmailDto> gmailDtos = fetchUnread(account, messageIds);
+        writeCheckpoint(account, historyId);
+        logger.info(AGENT_EMOJI +"AGENT_SYNC - Full resync found {} unread messages, checkpoint at history id {}", gmailDtos.size(), historyId);
+        return new MailboxSyncDto(true, historyId.toString(), gmailDtos);
+    }
+
+    private List<GmailDto> fetchUnread(GoogleAccount account, List<String> messageIds) throws IOException {
+        if (messageIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<GmailDto> gmailDtos = new ArrayList<>();
+        for (Message message : batchFetcher.fetchMessages(account, messageIds)) {
+            if (message.getLabelIds() != null && message.getLabelIds().contains("UNREAD")) {
+                gmailDtos.add(gmailMapper.messageToDto(message));
+            }
+        }
+        mailSearchIndex.index(account.id(), gmailDtos);
+        return gmailDtos;
+    }
+
+    private BigInteger readCheckpoint(GoogleAccount account) throws IOException {
+        Path path = checkpointPath(account);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        String value = Files.readString(path, StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? null : new BigInteger(value);
+    }
+
+    private void writeCheckpoint(GoogleAccount account, BigInteger historyId) throws IOException {
+        Path path = checkpointPath(account);
+        Files.createDirectories(path.getParent());
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(tmp, historyId.toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path checkpointPath(GoogleAccount account) {
+        Path path = Paths.get(checkpointFile).toAbsolutePath();
+        return path.resolveSibling(path.getFileName() + "-" + account.id());
+    }
+}
@@ -0,0 +1,89 @@
+package com.google_api.email.service;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Serializes a {@link MimeMessage} on a background thread into a small pipe so it can be uploaded while it
+ * is being written; only the pipe buffer is held in memory. A failure on the writing side surfaces as an
+ * IOException at the end of the stream instead of a silently truncated message.
+ */
+final class MimePipe implements Closeable {
+
+    private static final int PIPE_BUFFER = 64 * 1024;
+
+    private final PipedInputStream pipe;
+    private final CompletableFuture<Void> writer;
+
+    private MimePipe(PipedInputStream pipe, CompletableFuture<Void> writer) {
+        this.pipe = pipe;
+        this.writer = writer;
+    }
+
+    static MimePipe start(MimeMessage message, Executor executor) throws IOException {
+        PipedInputStream pipe = new PipedInputStream(PIPE_BUFFER);
+        PipedOutputStream out = new PipedOutputStream(pipe);
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (out) {
+                message.writeTo(out);
+            } catch (IOException | MessagingException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+        return new MimePipe(pipe, writer);
+    }
+
+    InputStream inputStream() {
+        return new FilterInputStream(pipe) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b < 0) {
+                    awaitWriter();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if (read < 0) {
+                    awaitWriter();
+                }
+                return read;
+            }
+
+            // Upload requests close their content; the pipe is closed by MimePipe.close() instead.
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    private void awaitWriter() throws IOException {
+        try {
+            writer.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ioException ? ioException : new IOException("Failed to write MIME message", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for MIME writer", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pipe.close();
+    }
+}
@@ -0,0 +1,201 @@
+package com.google_api.email.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Supplier;
+import static com.google_api.shared.Constant.AGENT_EMOJI;
+
+/**
+ * Append-only NDJSON log ({@code gmail.outbox.journal-file}) behind {@link MailOutbox}. Appends are handed to
+ * one writer thread that writes everything queued since its last flush and then calls {@code fsync} once, so
+ * concurrent callers share the cost of a sync; an append's future completes only after its line is on disk.
+ * A torn last line left by a crash is ignored on replay.
+ */
+@Component
+@RequiredArgsConstructor
+public class MutationJournal {
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${gmail.outbox.journal-file:outbox/journal.ndjson}")
+    private String journalFile;
+
+    @Value("${gmail.outbox.max-group-commit:256}")
+    private int maxGroupCommit;
+
+    private static final org.slf4j.Logger logger = LoggerFactory.getLogger(MutationJournal.class);
+
+    private final BlockingQueue<PendingAppend> pending = new LinkedBlockingQueue<>();
+    private final Object fileLock = new Object();
+    private Path journalPath;
+    private FileChannel channel;
+    private Thread writer;
+
+    @PostConstruct
+    void open() throws IOException {
+        journalPath = Path.of(journalFile).toAbsolutePath();
+        Files.createDirectories(journalPath.getParent());
+        channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        writer = Thread.ofPlatform().name("mutation-journal").daemon().start(this::writeLoop);
+    }
+
+    @PreDestroy
+    void close() throws IOException {
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingAppend append;
+        while ((append = pending.poll()) != null) {
+            append.written.completeExceptionally(new IOException("Journal closed"));
+        }
+        synchronized (fileLock) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Every entry in the journal, oldest first.
+     */
+    List<Entry> replay() throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    entries.add(objectMapper.readValue(line, Entry.class));
+                } catch (IOException e) {
+                    logger.warn(AGENT_EMOJI +"AGENT_OUTBOX - Skipping unreadable journal line: {}", e.getMessage());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Queues {@code entry}; the future completes once it has been synced to disk.
+     */
+    CompletableFuture<Void> append(Entry entry) {
+        PendingAppend append = new PendingAppend(serialize(entry), new CompletableFuture<>());
+        pending.add(append);
+        return append.written;
+    }
+
+    void appendAndWait(Entry entry) throws IOException {
+        try {
+            append(entry).join();
+        } catch (RuntimeException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Replaces the journal with {@code snapshot}. The snapshot is taken while appends are held back, so an
+     * entry is either reflected in it or written after it, never lost in between.
+     */
+    void rewrite(Supplier<Collection<Entry>> snapshot) throws IOException {
+        synchronized (fileLock) {
+            Path tmp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Entry entry : snapshot.get()) {
+                    writeFully(out, serialize(entry));
+                }
+                out.force(false);
+            }
+            channel.close();
+            Files.move(tmp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(journalPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            // Everything that queued up during the previous sync goes out with this one.
+            pending.drainTo(batch, maxGroupCommit - 1);
+            try {
+                synchronized (fileLock) {
+                    for (PendingAppend append : batch) {
+                        writeFully(channel, append.line);
+                    }
+                    channel.force(false);
+                }
+                batch.forEach(append -> append.written.complete(null));
+            } catch (IOException e) {
+                logger.error(AGENT_EMOJI +"AGENT_OUTBOX - Journal write of {} entries failed: {}", batch.size(), e.getMessage());
+                batch.forEach(append -> append.written.completeExceptionally(e));
+            }
+            batch.clear();
+        }
+    }
+
+    private byte[] serialize(Entry entry) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(entry);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unserializable journal entry: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeFully(FileChannel target, byte[] line) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(line);
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    /**
+     * One journal line. {@code QUEUED} carries the request, {@code STEP} a result a retry must not redo,
+     * {@code DONE} the final status; compaction folds an operation into a single line of its latest type.
+     */
+    record Entry(
+            String type,
+            String operationId,
+            String accountId,
+            String kind,
+            Map<String, String> request,
+            Map<String, String> steps,
+            String status,
+            String result,
+            String error,
+            long atMillis
+    ) {}
+
+    private record PendingAppend(byte[] line, CompletableFuture<Void> written) {}
+}
@@ -1,17 +1,47 @@
 package com.google_api.email.service;
 
+import com.google.api.client.googleapis.media.MediaHttpUploader;
+import com.google.api.client.http.InputStreamContent;
 import com.google.api.services.gmail.Gmail;
-import com.google.api.services.gmail.model.ModifyMessageRequest;
+import com.google_api.config.GoogleAccount;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.email.dto.BulkReplyResultDto;
 import com.google_api.email.dto.ReplyEmailDto;
+import com.google_api.email.mapper.MessageProjection;
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Marker;
 import org.slf4j.MarkerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MultipartFile;
 import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import com.google.api.client.util.Base64;
 
@@ -21,68 +51,245 @@ import static com.google_api.shared.Constant.AGENT_EMOJI;
 @RequiredArgsConstructor
 public class ReplyService {
 
-    private final Gmail gmailService;
+    private final GoogleAccountRegistry accounts;
+    private final GoogleApiScheduler apiScheduler;
+    private final GmailLabelRegistry labelRegistry;
+    private final LabelMutationCoalescer labelMutations;
+    private final GmailBatchFetcher batchFetcher;
+    private final GoogleCallExecutor callExecutor;
+    private final MailOutbox outbox;
 
-    @Value("${gmail.user.email}")
-    private String userEmail;
+    @Value("${gmail.reply.resumable-threshold:5MB}")
+    private DataSize resumableThreshold;
+
+    @Value("${gmail.reply.upload-chunk-size:1MB}")
+    private DataSize uploadChunkSize;
+
+    private static final Session MIME_SESSION = Session.getInstance(new Properties());
 
     private static final org.slf4j.Logger logger = LoggerFactory.getLogger(ReplyService.class);
 
-    public String replyToEmail(ReplyEmailDto replyEmailDto) {
-        try {
-            String labelId = getOrCreateLabelId("AI-AGENT-REPLIED");
-            Message originalMessage = gmailService.users().messages()
-                    .get(userEmail, replyEmailDto.originalMessageId())
-                    .setFormat("full")
-                    .execute();
+    private static final String REPLIED_LABEL = "AI-AGENT-REPLIED";
 
-            String threadId = originalMessage.getThreadId();
-            StringBuilder rawEmailBuilder = getStringBuilder(replyEmailDto, originalMessage);
-            String encodedEmail = Base64.encodeBase64URLSafeString(rawEmailBuilder.toString().getBytes("UTF-8"));
+    private static final String REPLY = "reply";
 
-            Message message = new Message();
-            message.setRaw(encodedEmail);
-            message.setThreadId(threadId);
+    static final MessageProjection REPLY_PROJECTION = new MessageProjection(
+            List.of("Subject", "From", "Message-ID"),
+            "id,threadId,payload/headers");
 
-            Message sentMessage = gmailService.users().messages().send(userEmail, message).execute();
+    @PostConstruct
+    void registerOutboxHandlers() {
+        outbox.register(REPLY, this::applyReply);
+    }
 
-            ModifyMessageRequest originalMods = new ModifyMessageRequest()
-                    .setRemoveLabelIds(List.of("UNREAD", "INBOX"));
-            gmailService.users().messages().modify(userEmail, replyEmailDto.originalMessageId(), originalMods).execute();
+    public String replyToEmail(ReplyEmailDto replyEmailDto) {
+        return replyToEmail(replyEmailDto, List.of());
+    }
 
-            ModifyMessageRequest labelMods = new ModifyMessageRequest()
-                    .setAddLabelIds(List.of(labelId, "UNREAD"));
-            gmailService.users().messages().modify(userEmail, sentMessage.getId(), labelMods).execute();
+    /**
+     * Replies with optional attachments. Messages with attachments are streamed as raw RFC 822 through a
+     * media upload; above {@code gmail.reply.resumable-threshold} the resumable protocol is used, which
+     * sends {@code gmail.reply.upload-chunk-size} at a time.
+     */
+    public String replyToEmail(ReplyEmailDto replyEmailDto, List<MultipartFile> attachments) {
+        GoogleAccount account = accounts.current();
+        try {
+            String labelId = labelRegistry.getOrCreateLabelId(REPLIED_LABEL);
+            Message sentMessage = send(account, replyEmailDto, attachments);
+            labelReplied(replyEmailDto.originalMessageId(), sentMessage.getId());
             logger.info(AGENT_EMOJI +"AGENT_REPLY - Successfully replied to mail with label: {}", labelId);
             return "SUCCESS";
         } catch (IOException e) {
+            labelRegistry.invalidateOnNotFound(e);
             logger.error(AGENT_EMOJI + "AGENT_REPLY - Error removing label and moving to inbox: {}", e.getMessage());
             return "failure: " + e.getMessage();
         }
     }
 
-    private StringBuilder getStringBuilder(ReplyEmailDto replyEmailDto, Message originalMessage) {
-        String originalSubject = "";
-        String originalFrom = "";
-        String messageId = "";
+    /**
+     * Queues a reply without attachments in the {@link MailOutbox}; it is sent, and retried, by the outbox workers.
+     */
+    public MailOutbox.Operation submitReply(ReplyEmailDto replyEmailDto, String idempotencyKey) {
+        return outbox.submit(REPLY, replyRequest(replyEmailDto), idempotencyKey);
+    }
+
+    private static Map<String, String> replyRequest(ReplyEmailDto replyEmailDto) {
+        Map<String, String> request = new HashMap<>();
+        request.put("originalMessageId", replyEmailDto.originalMessageId());
+        request.put("subject", replyEmailDto.subject());
+        request.put("bodyText", replyEmailDto.bodyText());
+        return request;
+    }
 
-        for (var header : originalMessage.getPayload().getHeaders()) {
-            switch (header.getName()) {
-                case "Subject" -> originalSubject = header.getValue();
-                case "From" -> originalFrom = header.getValue();
-                case "Message-ID" -> messageId = header.getValue();
+    // The sent id is checkpointed before relabeling, so a retry after a failed relabel does not send again.
+    // Bulk replies carry the original's thread and headers, fetched in one batch, so no get is needed here.
+    private String applyReply(MailOutbox.Operation operation) throws IOException {
+        GoogleAccount account = accounts.current();
+        ReplyEmailDto replyEmailDto = new ReplyEmailDto(operation.request("originalMessageId"),
+                operation.request("subject"), operation.request("bodyText"));
+        try {
+            String sentMessageId = operation.step("sentMessageId");
+            if (sentMessageId == null) {
+                Message sent = operation.request("threadId") != null
+                        ? send(account, replyEmailDto, ReplyHeaders.original(operation), CallPriority.BULK)
+                        : send(account, replyEmailDto, List.of());
+                sentMessageId = sent.getId();
+                operation.checkpoint("sentMessageId", sentMessageId);
             }
+            labelReplied(replyEmailDto.originalMessageId(), sentMessageId);
+            logger.info(AGENT_EMOJI +"AGENT_REPLY - Successfully replied to mail {}", replyEmailDto.originalMessageId());
+            return "SUCCESS";
+        } catch (IOException e) {
+            labelRegistry.invalidateOnNotFound(e);
+            throw e;
         }
+    }
+
+    private Message send(GoogleAccount account, ReplyEmailDto replyEmailDto, List<MultipartFile> attachments) throws IOException {
+        Message originalMessage = apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_GET, CallPriority.HIGH,
+                REPLY_PROJECTION.apply(account.gmail().users().messages().get(account.email(), replyEmailDto.originalMessageId())));
 
-        String replySubject = originalSubject.startsWith("Re:") ? originalSubject : "Re: " + originalSubject;
+        return attachments.isEmpty()
+                ? send(account, replyEmailDto, originalMessage, CallPriority.HIGH)
+                : apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_SEND, CallPriority.HIGH, () -> uploadReply(account, replyEmailDto, originalMessage, attachments));
+    }
+
+    private Message send(GoogleAccount account, ReplyEmailDto replyEmailDto, Message originalMessage, CallPriority priority) throws IOException {
+        return apiScheduler.execute(GoogleApiMethod.GMAIL_MESSAGES_SEND, priority,
+                account.gmail().users().messages().send(account.email(), toReply(account, replyEmailDto, originalMessage)).setFields("id,threadId"));
+    }
+
+    private void labelReplied(String originalMessageId, String sentMessageId) throws IOException {
+        String labelId = labelRegistry.getOrCreateLabelId(REPLIED_LABEL);
+        CompletableFuture<Void> originalMods = labelMutations.modify(
+                originalMessageId, List.of(), List.of("UNREAD", "INBOX"));
+        CompletableFuture<Void> labelMods = labelMutations.modify(
+                sentMessageId, List.of(labelId, "UNREAD"), List.of());
+        LabelMutationCoalescer.await(originalMods);
+        LabelMutationCoalescer.await(labelMods);
+    }
+
+    /**
+     * Replies to many messages at once: the originals are fetched in one batch and every reply is then queued
+     * in the {@link MailOutbox} with the original's headers, so it is journaled and retried like a single reply.
+     * The outbox workers run the sends concurrently and their label changes coalesce into batchModify calls.
+     * Returns once every item has its outcome.
+     */
+    public List<BulkReplyResultDto> replyToEmails(List<ReplyEmailDto> replyEmailDtos) {
+        GoogleAccount account = accounts.current();
+        BulkReplyResultDto[] results = new BulkReplyResultDto[replyEmailDtos.size()];
+        Map<String, Message> originals = new HashMap<>();
+        try {
+            List<String> originalIds = new ArrayList<>(new LinkedHashSet<>(
+                    replyEmailDtos.stream().map(ReplyEmailDto::originalMessageId).toList()));
+            for (Message original : batchFetcher.fetchMessages(account, originalIds, REPLY_PROJECTION)) {
+                originals.put(original.getId(), original);
+            }
+        } catch (IOException e) {
+            labelRegistry.invalidateOnNotFound(e);
+            logger.error(AGENT_EMOJI + "AGENT_REPLY - Error preparing bulk reply: {}", e.getMessage());
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new BulkReplyResultDto(i, replyEmailDtos.get(i).originalMessageId(), null, e.getMessage());
+            }
+            return Arrays.asList(results);
+        }
+
+        MailOutbox.Operation[] operations = new MailOutbox.Operation[replyEmailDtos.size()];
+        for (int i = 0; i < replyEmailDtos.size(); i++) {
+            ReplyEmailDto replyEmailDto = replyEmailDtos.get(i);
+            Message originalMessage = originals.get(replyEmailDto.originalMessageId());
+            if (originalMessage == null) {
+                results[i] = new BulkReplyResultDto(i, replyEmailDto.originalMessageId(), null, "Original message not found");
+                continue;
+            }
+            Map<String, String> request = replyRequest(replyEmailDto);
+            ReplyHeaders.of(originalMessage).putInto(request, originalMessage.getThreadId());
+            try {
+                operations[i] = outbox.submit(REPLY, request, null);
+            } catch (RuntimeException e) {
+                results[i] = new BulkReplyResultDto(i, replyEmailDto.originalMessageId(), null, e.getMessage());
+            }
+        }
+        for (int i = 0; i < operations.length; i++) {
+            if (operations[i] == null) {
+                continue;
+            }
+            String outcome = operations[i].outcome().join();
+            String error = outcome.startsWith("failure: ") ? outcome.substring("failure: ".length()) : null;
+            results[i] = new BulkReplyResultDto(i, replyEmailDtos.get(i).originalMessageId(), operations[i].step("sentMessageId"), error);
+        }
+
+        logger.info(AGENT_EMOJI + "AGENT_REPLY - Bulk reply finished for {} messages", results.length);
+        return Arrays.asList(results);
+    }
+
+    // Runs once per attempt: the pipe is consumed by the upload, so a retry writes the message again.
+    private Message uploadReply(GoogleAccount account, ReplyEmailDto replyEmailDto, Message originalMessage, List<MultipartFile> attachments) throws IOException {
+        long estimatedBytes = replyEmailDto.bodyText() != null ? replyEmailDto.bodyText().length() : 0;
+        for (MultipartFile attachment : attachments) {
+            estimatedBytes += attachment.getSize() * 4 / 3;
+        }
+
+        try (MimePipe pipe = MimePipe.start(toMimeReply(account, replyEmailDto, originalMessage, attachments), callExecutor.executor())) {
+            Gmail.Users.Messages.Send send = account.gmail().users().messages()
+                    .send(account.email(), new Message().setThreadId(originalMessage.getThreadId()),
+                            new InputStreamContent("message/rfc822", pipe.inputStream()))
+                    .setFields("id,threadId");
+            MediaHttpUploader uploader = send.getMediaHttpUploader();
+            uploader.setDirectUploadEnabled(estimatedBytes < resumableThreshold.toBytes());
+            uploader.setChunkSize((int) uploadChunkSize.toBytes());
+            return send.execute();
+        }
+    }
+
+    private MimeMessage toMimeReply(GoogleAccount account, ReplyEmailDto replyEmailDto, Message originalMessage, List<MultipartFile> attachments) throws IOException {
+        ReplyHeaders headers = ReplyHeaders.of(originalMessage);
+        try {
+            MimeMessage mimeMessage = new MimeMessage(MIME_SESSION);
+            mimeMessage.setFrom(new InternetAddress(account.email()));
+            mimeMessage.setRecipients(jakarta.mail.Message.RecipientType.TO, InternetAddress.parse(headers.from()));
+            mimeMessage.setSubject(headers.replySubject(), "UTF-8");
+            if (!headers.messageId().isEmpty()) {
+                mimeMessage.setHeader("In-Reply-To", headers.messageId());
+                mimeMessage.setHeader("References", headers.messageId());
+            }
+
+            MimeMultipart multipart = new MimeMultipart();
+            MimeBodyPart text = new MimeBodyPart();
+            text.setText(replyEmailDto.bodyText(), "UTF-8");
+            multipart.addBodyPart(text);
+            for (MultipartFile attachment : attachments) {
+                MimeBodyPart part = new MimeBodyPart();
+                part.setDataHandler(new DataHandler(new MultipartFileDataSource(attachment)));
+                part.setFileName(attachment.getOriginalFilename());
+                multipart.addBodyPart(part);
+            }
+            mimeMessage.setContent(multipart);
+            return mimeMessage;
+        } catch (MessagingException e) {
+            throw new IOException("Failed to build reply: " + e.getMessage(), e);
+        }
+    }
+
+    private Message toReply(GoogleAccount account, ReplyEmailDto replyEmailDto, Message originalMessage) {
+        String encodedEmail = Base64.encodeBase64URLSafeString(
+                getStringBuilder(account, replyEmailDto, originalMessage).toString().getBytes(StandardCharsets.UTF_8));
+        Message message = new Message();
+        message.setRaw(encodedEmail);
+        message.setThreadId(originalMessage.getThreadId());
+        return message;
+    }
+
+    private StringBuilder getStringBuilder(GoogleAccount account, ReplyEmailDto replyEmailDto, Message originalMessage) {
+        ReplyHeaders headers = ReplyHeaders.of(originalMessage);
 
         StringBuilder rawEmailBuilder = new StringBuilder();
-        rawEmailBuilder.append("From: ").append(userEmail).append("\r\n");
-        rawEmailBuilder.append("To: ").append(originalFrom).append("\r\n");
-        rawEmailBuilder.append("Subject: ").append(replySubject).append("\r\n");
-        if (!messageId.isEmpty()) {
-            rawEmailBuilder.append("In-Reply-To: ").append(messageId).append("\r\n");
-            rawEmailBuilder.append("References: ").append(messageId).append("\r\n");
+        rawEmailBuilder.append("From: ").append(account.email()).append("\r\n");
+        rawEmailBuilder.append("To: ").append(headers.from()).append("\r\n");
+        rawEmailBuilder.append("Subject: ").append(headers.replySubject()).append("\r\n");
+        if (!headers.messageId().isEmpty()) {
+            rawEmailBuilder.append("In-Reply-To: ").append(headers.messageId()).append("\r\n");
+            rawEmailBuilder.append("References: ").append(headers.messageId()).append("\r\n");
         }
         rawEmailBuilder.append("Content-Type: text/plain; charset=\"UTF-8\"\r\n");
         rawEmailBuilder.append("\r\n");
@@ -90,24 +297,66 @@ public class ReplyService {
         return rawEmailBuilder;
     }
 
-    private String getOrCreateLabelId(String labelName) throws IOException {
-        List<com.google.api.services.gmail.model.Label> labels = gmailService.users().labels().list(userEmail).execute().getLabels();
+    private record ReplyHeaders(String subject, String from, String messageId) {
 
-        for (com.google.api.services.gmail.model.Label label : labels) {
-            if (label.getName().equalsIgnoreCase(labelName)) {
-                return label.getId();
+        static ReplyHeaders of(Message originalMessage) {
+            String originalSubject = "";
+            String originalFrom = "";
+            String messageId = "";
+
+            for (var header : originalMessage.getPayload().getHeaders()) {
+                switch (header.getName().toLowerCase(Locale.ROOT)) {
+                    case "subject" -> originalSubject = header.getValue();
+                    case "from" -> originalFrom = header.getValue();
+                    case "message-id" -> messageId = header.getValue();
+                }
             }
+            return new ReplyHeaders(originalSubject, originalFrom, messageId);
         }
 
-        com.google.api.services.gmail.model.Label newLabel = new com.google.api.services.gmail.model.Label()
-                .setName(labelName)
-                .setLabelListVisibility("labelShow")
-                .setMessageListVisibility("show");
+        void putInto(Map<String, String> request, String threadId) {
+            request.put("threadId", threadId);
+            request.put("originalSubject", subject);
+            request.put("originalFrom", from);
+            request.put("originalMessageIdHeader", messageId);
+        }
 
-        com.google.api.services.gmail.model.Label createdLabel =
-                gmailService.users().labels().create(userEmail, newLabel).execute();
+        // The original as far as a reply needs it, rebuilt from what putInto recorded.
+        static Message original(MailOutbox.Operation operation) {
+            List<MessagePartHeader> headers = List.of(
+                    new MessagePartHeader().setName("Subject").setValue(Objects.requireNonNullElse(operation.request("originalSubject"), "")),
+                    new MessagePartHeader().setName("From").setValue(Objects.requireNonNullElse(operation.request("originalFrom"), "")),
+                    new MessagePartHeader().setName("Message-ID").setValue(Objects.requireNonNullElse(operation.request("originalMessageIdHeader"), "")));
+            return new Message().setId(operation.request("originalMessageId")).setThreadId(operation.request("threadId"))
+                    .setPayload(new MessagePart().setHeaders(headers));
+        }
 
-        return createdLabel.getId();
+        String replySubject() {
+            return subject.startsWith("Re:") ? subject : "Re: " + subject;
+        }
     }
 
+    // Reads the upload from wherever the servlet container spooled it, so attachments are never copied to the heap.
+    private record MultipartFileDataSource(MultipartFile file) implements DataSource {
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return file.getInputStream();
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            throw new UnsupportedOperationException("Read-only attachment");
+        }
+
+        @Override
+        public String getContentType() {
+            return file.getContentType() != null ? file.getContentType() : "application/octet-stream";
+        }
+
+        @Override
+        public String getName() {
+            return file.getOriginalFilename();
+        }
+    }
 }
@@ -0,0 +1,185 @@
+package com.google_api.email.service;
+
+import com.google_api.email.dto.GmailDto;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Two layers in front of the unread-mail fan-out. Identical queries share one in-flight fetch, and its
+ * result is reused for {@code gmail.unread-cache.result-ttl}. Below that, mapped messages are kept in an LRU
+ * of at most {@code gmail.unread-cache.max-messages} entries, keyed by account and message id, so overlapping
+ * windows only fetch the ids they have not seen. Label changes this service makes are applied to the cached
+ * messages, see {@link #updateLabels}. Hit rates and the estimated heap footprint are published as {@code gmail.unread.cache.*}.
+ */
+@Component
+public class UnreadEmailCache implements MeterBinder {
+
+    // Rough per-entry overhead: the record, its list, the OffsetDateTime and the LRU node.
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    @Value("${gmail.unread-cache.result-ttl:PT2S}")
+    private Duration resultTtl;
+
+    @Value("${gmail.unread-cache.max-messages:10000}")
+    private int maxMessages;
+
+    private final Map<Object, Query<?>> queries = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, GmailDto> messages = new LinkedHashMap<>(256, 0.75f, true);
+    private long estimatedBytes;
+
+    private final LongAdder queryHits = new LongAdder();
+    private final LongAdder queryMisses = new LongAdder();
+    private final LongAdder messageHits = new LongAdder();
+    private final LongAdder messageMisses = new LongAdder();
+
+    /**
+     * Returns the shared result for {@code key}, running {@code loader} only if no fetch for it is in flight
+     * or fresh. Failures are not cached.
+     */
+    public <T> T query(Object key, GoogleApiScheduler.GoogleCall<T> loader) throws IOException {
+        while (true) {
+            @SuppressWarnings("unchecked")
+            Query<T> existing = (Query<T>) queries.get(key);
+            if (existing != null && !existing.expired(resultTtl)) {
+                queryHits.increment();
+                return await(existing.future);
+            }
+
+            Query<T> created = new Query<>();
+            boolean claimed = existing == null ? queries.putIfAbsent(key, created) == null : queries.replace(key, existing, created);
+            if (!claimed) {
+                continue;
+            }
+            queryMisses.increment();
+            queries.values().removeIf(query -> query.expired(resultTtl));
+            try {
+                created.future.complete(loader.call());
+                created.completedAtNanos = System.nanoTime();
+            } catch (IOException | RuntimeException e) {
+                queries.remove(key, created);
+                created.future.completeExceptionally(e);
+            }
+            return await(created.future);
+        }
+    }
+
+    public synchronized GmailDto getMessage(String accountId, String messageId) {
+        GmailDto dto = messages.get(accountId + "/" + messageId);
+        if (dto != null) {
+            messageHits.increment();
+        } else {
+            messageMisses.increment();
+        }
+        return dto;
+    }
+
+    public synchronized void putMessage(String accountId, GmailDto dto) {
+        GmailDto previous = messages.put(accountId + "/" + dto.messageId(), dto);
+        if (previous != null) {
+            estimatedBytes -= estimateBytes(previous);
+        }
+        estimatedBytes += estimateBytes(dto);
+
+        Iterator<GmailDto> eldest = messages.values().iterator();
+        while (messages.size() > maxMessages && eldest.hasNext()) {
+            estimatedBytes -= estimateBytes(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Applies a label change made upstream to the cached copies of {@code messageIds}. Shared query results
+     * are dropped, since they may still hold the old copies.
+     */
+    public synchronized void updateLabels(String accountId, Collection<String> messageIds, Collection<String> addLabelIds, Collection<String> removeLabelIds) {
+        for (String messageId : messageIds) {
+            String key = accountId + "/" + messageId;
+            GmailDto cached = messages.get(key);
+            if (cached != null) {
+                GmailDto updated = cached.withLabels(addLabelIds, removeLabelIds);
+                messages.put(key, updated);
+                estimatedBytes += estimateBytes(updated) - estimateBytes(cached);
+            }
+        }
+        queries.clear();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("gmail.unread.cache.queries", queryHits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("gmail.unread.cache.queries", queryMisses, LongAdder::sum).tag("result", "miss").register(registry);
+        FunctionCounter.builder("gmail.unread.cache.messages", messageHits, LongAdder::sum).tag("result", "hit").register(registry);
+        FunctionCounter.builder("gmail.unread.cache.messages", messageMisses, LongAdder::sum).tag("result", "miss").register(registry);
+        Gauge.builder("gmail.unread.cache.hit.ratio", this, UnreadEmailCache::messageHitRatio).register(registry);
+        Gauge.builder("gmail.unread.cache.size", this, UnreadEmailCache::messageCount).register(registry);
+        Gauge.builder("gmail.unread.cache.estimated.bytes", this, UnreadEmailCache::estimatedBytes).baseUnit("bytes").register(registry);
+    }
+
+    private double messageHitRatio() {
+        double hits = messageHits.sum();
+        double total = hits + messageMisses.sum();
+        return total == 0 ? 0 : hits / total;
+    }
+
+    private synchronized double messageCount() {
+        return messages.size();
+    }
+
+    private synchronized double estimatedBytes() {
+        return estimatedBytes;
+    }
+
+    // Strings are counted at two bytes per char, which over-estimates Latin-1 compact strings.
+    private static long estimateBytes(GmailDto dto) {
+        long chars = length(dto.messageId()) + length(dto.subject()) + length(dto.from()) + length(dto.snippet());
+        if (dto.recipients() != null) {
+            for (String recipient : dto.recipients()) {
+                chars += length(recipient) + 24;
+            }
+        }
+        if (dto.labelIds() != null) {
+            for (String labelId : dto.labelIds()) {
+                chars += length(labelId) + 24;
+            }
+        }
+        return ENTRY_OVERHEAD_BYTES + chars * 2;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw e;
+        }
+    }
+
+    private static final class Query<T> {
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private volatile long completedAtNanos;
+
+        private boolean expired(Duration ttl) {
+            return completedAtNanos != 0 && System.nanoTime() - completedAtNanos > ttl.toNanos();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.google_api.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.http.HttpTransport;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The given components wired by Spring against an in-process transport, for tests and benchmarks that do not
+ * want the whole application. Settings are overridden by their public property names; anything not overridden
+ * keeps its {@code @Value} default, so a new setting needs no change here or in the callers. Credentials are
+ * static tokens and start-up warm-up is off.
+ */
+public final class StubContext {
+
+    private static final Map<String, Object> DEFAULTS = Map.of(
+            "gmail.user.email", "stub@example.com",
+            "google.accounts.warmup", false);
+
+    private StubContext() {
+    }
+
+    /**
+     * Refreshes a context holding {@code components} plus the transport, credentials, a meter registry and an
+     * object mapper, then publishes {@link ApplicationReadyEvent} so start-up listeners run. Close it when done.
+     */
+    public static AnnotationConfigApplicationContext start(HttpTransport transport, Map<String, Object> properties, Class<?>... components) {
+        Map<String, Object> settings = new HashMap<>(DEFAULTS);
+        settings.putAll(properties);
+
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        // Same conversions as the application, e.g. "PT2S" or "5MB" into @Value fields.
+        context.getBeanFactory().setConversionService(ApplicationConversionService.getSharedInstance());
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("stub", settings));
+        context.registerBean("googleHttpTransport", HttpTransport.class, () -> transport);
+        context.registerBean(GoogleCredentialSource.class, () -> (accountId, email) ->
+                new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("stub-token-" + accountId));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new);
+        context.registerBean(ObjectMapper.class, () -> new ObjectMapper().findAndRegisterModules());
+        context.register(components);
+        context.refresh();
+        context.publishEvent(new ApplicationReadyEvent(new SpringApplication(), new String[0], context, Duration.ZERO));
+        return context;
+    }
+}
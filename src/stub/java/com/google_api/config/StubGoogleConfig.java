@@ -0,0 +1,47 @@
+package com.google_api.config;
+
+import com.google.api.client.auth.oauth2.BearerToken;
+import com.google.api.client.auth.oauth2.Credential;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code stub} profile: Gmail and Calendar are served by an in-process {@link StubGoogleTransport} and
+ * no OAuth flow runs, so the app (including the change watcher) can be exercised offline. New mail
+ * arrives every {@code stub.google.arrival-interval}.
+ */
+@Configuration
+@Profile("stub")
+public class StubGoogleConfig {
+
+    @Value("${stub.google.latency:PT0.05S}")
+    private Duration latency;
+
+    @Value("${stub.google.arrival-interval:PT20S}")
+    private Duration arrivalInterval;
+
+    @Bean
+    public StubGoogleTransport googleHttpTransport() {
+        return new StubGoogleTransport(JacksonFactory.getDefaultInstance(), latency.toMillis(), 20, 0, 50);
+    }
+
+    @Bean
+    public GoogleCredentialSource googleCredentialSource() {
+        return (accountId, email) -> new Credential(BearerToken.authorizationHeaderAccessMethod()).setAccessToken("stub-token-" + accountId);
+    }
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ScheduledExecutorService stubMailArrivals(StubGoogleTransport googleHttpTransport) {
+        ScheduledExecutorService arrivals = Executors.newSingleThreadScheduledExecutor();
+        arrivals.scheduleWithFixedDelay(() -> googleHttpTransport.deliver(1),
+                arrivalInterval.toMillis(), arrivalInterval.toMillis(), TimeUnit.MILLISECONDS);
+        return arrivals;
+    }
+}
@@ -0,0 +1,217 @@
+package com.google_api.config;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+import com.google.api.services.gmail.model.Label;
+import com.google.api.services.gmail.model.ListLabelsResponse;
+import com.google.api.services.gmail.model.ListMessagesResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google.api.services.gmail.model.MessagePart;
+import com.google.api.services.gmail.model.MessagePartHeader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the Gmail and Calendar REST endpoints the services call, used by the
+ * {@code stub} profile and the benchmarks. Every HTTP round trip (a batch counts once) sleeps
+ * {@code latencyMillis}; responses are pre-serialized so the stub itself adds little CPU to a measurement.
+ * {@link #deliver(int)} adds new unread mail to the inbox listing.
+ */
+public class StubGoogleTransport extends MockHttpTransport {
+
+    private static final Pattern BATCH_PART = Pattern.compile("^(GET|POST|PUT|PATCH|DELETE) (\\S+) HTTP/1\\.1", Pattern.MULTILINE);
+    private static final String BOUNDARY = "stub_batch_boundary";
+
+    private final long latencyMillis;
+    private final int extraHeaders;
+    private final Map<String, String> messagesById = new ConcurrentHashMap<>();
+    private final List<Message> listed = new ArrayList<>();
+    private volatile String messageListJson;
+    private final String labelListJson;
+    private final String eventListJson;
+    private final JsonFactory jsonFactory;
+    private final AtomicLong roundTrips = new AtomicLong();
+    private final AtomicLong apiCalls = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+
+    public StubGoogleTransport(JsonFactory jsonFactory, long latencyMillis, int messagesPerPage, int extraHeaders, int eventCount) {
+        this.jsonFactory = jsonFactory;
+        this.latencyMillis = latencyMillis;
+        this.extraHeaders = extraHeaders;
+        deliver(messagesPerPage);
+
+        labelListJson = toJson(new ListLabelsResponse().setLabels(List.of(
+                new Label().setId("INBOX").setName("INBOX"),
+                new Label().setId("SPAM").setName("SPAM"),
+                new Label().setId("UNREAD").setName("UNREAD"),
+                new Label().setId("Label_1").setName("AI-AGENT-MOVED"),
+                new Label().setId("Label_2").setName("AI-AGENT-REPLIED"))));
+
+        List<Event> events = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < eventCount; i++) {
+            long start = now + TimeUnit.HOURS.toMillis(i % (24 * 7));
+            events.add(new Event()
+                    .setId("event-" + i)
+                    .setStatus("confirmed")
+                    .setSummary("Sync " + i)
+                    .setStart(new EventDateTime().setDateTime(new DateTime(start)))
+                    .setEnd(new EventDateTime().setDateTime(new DateTime(start + TimeUnit.MINUTES.toMillis(30)))));
+        }
+        eventListJson = toJson(new Events().setItems(events).setNextSyncToken("sync-token"));
+    }
+
+    public long roundTrips() {
+        return roundTrips.get();
+    }
+
+    public long apiCalls() {
+        return apiCalls.get();
+    }
+
+    /**
+     * Adds {@code count} new unread messages; they are listed first, like Gmail's newest-first order.
+     */
+    public synchronized void deliver(int count) {
+        List<Message> delivered = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String id = "msg-" + messagesById.size();
+            messagesById.put(id, toJson(message(id, extraHeaders)));
+            delivered.add(0, new Message().setId(id));
+        }
+        listed.addAll(0, delivered);
+        messageListJson = toJson(new ListMessagesResponse().setMessages(listed.subList(0, Math.min(listed.size(), 100))));
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+        return new MockLowLevelHttpRequest(url) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                roundTrips.incrementAndGet();
+                sleep();
+                String path = URI.create(url).getPath();
+                if (path.startsWith("/batch/")) {
+                    return batch(getContentAsString());
+                }
+                return route(method, path).toResponse();
+            }
+        };
+    }
+
+    private LowLevelHttpResponse batch(String requestBody) {
+        StringBuilder body = new StringBuilder();
+        Matcher part = BATCH_PART.matcher(requestBody);
+        int contentId = 0;
+        while (part.find()) {
+            StubResponse response = route(part.group(1), URI.create(part.group(2)).getPath());
+            body.append("--").append(BOUNDARY).append("\r\n")
+                    .append("Content-Type: application/http\r\n")
+                    .append("Content-ID: <response-").append(++contentId).append(">\r\n\r\n")
+                    .append("HTTP/1.1 ").append(response.status).append(" OK\r\n")
+                    .append("Content-Type: application/json; charset=UTF-8\r\n\r\n")
+                    .append(response.json).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        return new MockLowLevelHttpResponse()
+                .setContentType("multipart/mixed; boundary=" + BOUNDARY)
+                .setContent(body.toString());
+    }
+
+    private StubResponse route(String method, String path) {
+        apiCalls.incrementAndGet();
+        if (path.contains("/calendar/v3/")) {
+            if ("POST".equals(method)) {
+                return new StubResponse(200, "{\"id\":\"created-" + sent.incrementAndGet() + "\",\"status\":\"confirmed\"}");
+            }
+            return new StubResponse(200, eventListJson);
+        }
+        if (path.endsWith("/labels")) {
+            return new StubResponse(200, labelListJson);
+        }
+        if (path.endsWith("/messages/send")) {
+            return new StubResponse(200, "{\"id\":\"sent-" + sent.incrementAndGet() + "\",\"threadId\":\"thread-0\"}");
+        }
+        if (path.endsWith("/messages/batchModify")) {
+            return new StubResponse(204, "");
+        }
+        if (path.endsWith("/modify")) {
+            return new StubResponse(200, "{}");
+        }
+        if (path.endsWith("/messages")) {
+            return new StubResponse(200, messageListJson);
+        }
+        String json = messagesById.get(path.substring(path.lastIndexOf('/') + 1));
+        return json != null ? new StubResponse(200, json) : new StubResponse(404, "{\"error\":{\"code\":404,\"message\":\"Not Found\"}}");
+    }
+
+    private void sleep() throws IOException {
+        if (latencyMillis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted in stub latency", e);
+        }
+    }
+
+    private static Message message(String id, int extraHeaders) {
+        List<MessagePartHeader> headers = new ArrayList<>();
+        for (int i = 0; i < extraHeaders; i++) {
+            headers.add(header("Received", "from mail-sor-f41.google.com by mx.google.com with SMTPS id " + i));
+        }
+        headers.add(header("From", "Priya Raman <priya.raman@example.com>"));
+        headers.add(header("To", "ops@example.com,Arun K <arun.k@example.com>"));
+        headers.add(header("Subject", "Invoice #48213 overdue"));
+        headers.add(header("Message-ID", "<" + id + "@mail.example.com>"));
+        return new Message()
+                .setId(id)
+                .setThreadId("thread-" + id)
+                .setLabelIds(List.of("INBOX", "UNREAD"))
+                .setInternalDate(System.currentTimeMillis())
+                .setSnippet("Hi team, following up on the invoice below which is now 14 days overdue.")
+                .setPayload(new MessagePart().setHeaders(headers));
+    }
+
+    private static MessagePartHeader header(String name, String value) {
+        return new MessagePartHeader().setName(name).setValue(value);
+    }
+
+    private String toJson(Object value) {
+        try {
+            return jsonFactory.toString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record StubResponse(int status, String json) {
+
+        LowLevelHttpResponse toResponse() {
+            MockLowLevelHttpResponse response = new MockLowLevelHttpResponse().setStatusCode(status);
+            if (status == 204) {
+                return response.setContentType(null).setZeroContent();
+            }
+            return response.setContentType("application/json; charset=UTF-8").setContent(json);
+        }
+    }
+}
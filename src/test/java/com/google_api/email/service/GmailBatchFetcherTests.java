@@ -0,0 +1,139 @@
+package com.google_api.email.service;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.gmail.model.Message;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.config.StubContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GmailBatchFetcherTests {
+
+	private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+
+	private BatchTransport transport;
+	private AnnotationConfigApplicationContext context;
+	private GoogleAccountRegistry accounts;
+	private GmailBatchFetcher fetcher;
+
+	@BeforeEach
+	void setUp() {
+		transport = new BatchTransport();
+		context = StubContext.start(transport, Map.of(
+						"google.quota.gmail.units-per-second", 1e9,
+						"google.quota.gmail.burst", 1e9,
+						"google.quota.base-backoff", "PT0.001S",
+						"google.quota.max-backoff", "PT0.01S",
+						"gmail.batch.size", 50),
+				GoogleAccountRegistry.class, GoogleApiMetrics.class, GoogleApiScheduler.class, GoogleCallExecutor.class,
+				GmailBatchFetcher.class);
+		accounts = context.getBean(GoogleAccountRegistry.class);
+		fetcher = context.getBean(GmailBatchFetcher.class);
+	}
+
+	@AfterEach
+	void tearDown() {
+		context.close();
+	}
+
+	@Test
+	void fetchesInBatchesOfConfiguredSizeAndKeepsRequestOrder() throws IOException {
+		List<String> ids = IntStream.range(0, 120).mapToObj(i -> "msg-" + i).toList();
+
+		List<Message> messages = fetcher.fetchMessages(accounts.current(), ids);
+
+		assertThat(messages).extracting(Message::getId).containsExactlyElementsOf(ids);
+		assertThat(transport.batches).hasSize(3);
+		assertThat(transport.batches).extracting(List::size).containsExactlyInAnyOrder(50, 50, 20);
+	}
+
+	@Test
+	void skipsPermanentlyFailedPartsAndRetriesOnlyRetryableOnes() throws IOException {
+		List<String> ids = List.of("msg-a", "missing-1", "flaky-1", "msg-b");
+
+		List<Message> messages = fetcher.fetchMessages(accounts.current(), ids);
+
+		assertThat(messages).extracting(Message::getId).containsExactly("msg-a", "flaky-1", "msg-b");
+		assertThat(transport.batches).hasSize(2);
+		assertThat(transport.batches.get(0)).containsExactlyElementsOf(ids);
+		assertThat(transport.batches.get(1)).containsExactly("flaky-1");
+	}
+
+	/**
+	 * Answers Gmail batch requests part by part: {@code missing-*} ids are 404, {@code flaky-*} ids are 503 the
+	 * first time they are asked for, everything else is found. Records the message ids of every batch.
+	 */
+	private static final class BatchTransport extends MockHttpTransport {
+
+		private static final Pattern BATCH_PART = Pattern.compile("^GET (\\S+) HTTP/1\\.1", Pattern.MULTILINE);
+		private static final String BOUNDARY = "test_batch_boundary";
+
+		private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+		private final Set<String> failedOnce = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public LowLevelHttpRequest buildRequest(String method, String url) {
+			return new MockLowLevelHttpRequest(url) {
+				@Override
+				public LowLevelHttpResponse execute() throws IOException {
+					StringBuilder body = new StringBuilder();
+					List<String> ids = new ArrayList<>();
+					Matcher part = BATCH_PART.matcher(getContentAsString());
+					int contentId = 0;
+					while (part.find()) {
+						String path = URI.create(part.group(1)).getPath();
+						String id = path.substring(path.lastIndexOf('/') + 1);
+						ids.add(id);
+						body.append("--").append(BOUNDARY).append("\r\n")
+								.append("Content-Type: application/http\r\n")
+								.append("Content-ID: <response-").append(++contentId).append(">\r\n\r\n")
+								.append(respond(id)).append("\r\n");
+					}
+					body.append("--").append(BOUNDARY).append("--\r\n");
+					batches.add(ids);
+					return new MockLowLevelHttpResponse()
+							.setContentType("multipart/mixed; boundary=" + BOUNDARY)
+							.setContent(body.toString());
+				}
+			};
+		}
+
+		private String respond(String id) throws IOException {
+			if (id.startsWith("missing-")) {
+				return error(404, "Not Found", "notFound");
+			}
+			if (id.startsWith("flaky-") && failedOnce.add(id)) {
+				return error(503, "Service Unavailable", "backendError");
+			}
+			return "HTTP/1.1 200 OK\r\nContent-Type: application/json; charset=UTF-8\r\n\r\n"
+					+ JSON_FACTORY.toString(new Message().setId(id).setThreadId("thread-" + id));
+		}
+
+		private static String error(int status, String message, String reason) {
+			return "HTTP/1.1 " + status + " " + message + "\r\nContent-Type: application/json; charset=UTF-8\r\n\r\n"
+					+ "{\"error\":{\"code\":" + status + ",\"message\":\"" + message + "\",\"errors\":[{\"reason\":\"" + reason + "\",\"message\":\"" + message + "\"}]}}";
+		}
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google_api.config.AccountContext;
+import com.google_api.config.StubContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GoogleApiSchedulerTests {
+
+	private AnnotationConfigApplicationContext context;
+	private GoogleApiScheduler scheduler;
+
+	@BeforeEach
+	void setUp() {
+		context = StubContext.start(new MockHttpTransport(), Map.of(
+						"google.quota.gmail.units-per-second", 10,
+						"google.quota.gmail.burst", 10),
+				GoogleApiMetrics.class, GoogleApiScheduler.class);
+		scheduler = context.getBean(GoogleApiScheduler.class);
+	}
+
+	@AfterEach
+	void tearDown() {
+		context.close();
+	}
+
+	@Test
+	void rateLimitOnOneAccountDoesNotThrottleAnother() throws IOException {
+		AccountContext.callAs("first", () -> scheduler.shouldRetry(GoogleApiMethod.GMAIL_MESSAGES_GET, new GoogleJsonError().setCode(429), 0));
+
+		long secondMillis = millisToAcquire("second");
+		long firstMillis = millisToAcquire("first");
+
+		assertThat(secondMillis).isLessThan(100);
+		// The drained bucket refills 5 units at 10 units/s.
+		assertThat(firstMillis).isGreaterThanOrEqualTo(300);
+	}
+
+	@Test
+	void eachAccountHasItsOwnBurst() throws IOException {
+		assertThat(millisToAcquire("first") + millisToAcquire("first")).isLessThan(100);
+		assertThat(millisToAcquire("second") + millisToAcquire("second")).isLessThan(100);
+	}
+
+	@Test
+	void serverErrorsAreRetriedOnlyForIdempotentMethods() {
+		GoogleJsonError unavailable = new GoogleJsonError().setCode(503);
+
+		assertThat(scheduler.shouldRetry(GoogleApiMethod.GMAIL_MESSAGES_GET, unavailable, 0)).isTrue();
+		assertThat(scheduler.shouldRetry(GoogleApiMethod.GMAIL_MESSAGES_SEND, unavailable, 0)).isFalse();
+		assertThat(scheduler.shouldRetry(GoogleApiMethod.CALENDAR_EVENTS_INSERT, unavailable, 0)).isFalse();
+		assertThat(scheduler.shouldRetry(GoogleApiMethod.CALENDAR_EVENTS_INSERT, new GoogleJsonError().setCode(429), 0)).isTrue();
+	}
+
+	private long millisToAcquire(String accountId) throws IOException {
+		long started = System.nanoTime();
+		AccountContext.callAs(accountId, () -> {
+			scheduler.acquire(GoogleApiMethod.GMAIL_MESSAGES_GET, 1, CallPriority.NORMAL);
+			return null;
+		});
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.google_api.email.service;
+
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google_api.config.StubContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class GoogleCallExecutorTests {
+
+	private AnnotationConfigApplicationContext context;
+	private GoogleCallExecutor callExecutor;
+
+	@BeforeEach
+	void setUp() {
+		context = StubContext.start(new MockHttpTransport(), Map.of(
+						"google.concurrency.limits.slow", 2,
+						"google.concurrency.acquire-timeout", "PT0.05S"),
+				GoogleApiMetrics.class, GoogleCallExecutor.class);
+		callExecutor = context.getBean(GoogleCallExecutor.class);
+	}
+
+	@AfterEach
+	void tearDown() {
+		context.close();
+	}
+
+	@Test
+	void saturatedEndpointAnswers429WhileOtherEndpointsKeepWorking() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(2);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<String> first = callExecutor.submit("slow", () -> block(started, release));
+		CompletableFuture<String> second = callExecutor.submit("slow", () -> block(started, release));
+		assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+		CompletableFuture<String> rejected = callExecutor.submit("slow", () -> "never");
+		assertThatThrownBy(rejected::join)
+				.isInstanceOf(CompletionException.class)
+				.cause()
+				.isInstanceOfSatisfying(ResponseStatusException.class,
+						e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS));
+
+		assertThat(callExecutor.submit("fast", () -> "ok").join()).isEqualTo("ok");
+
+		release.countDown();
+		assertThat(first.join()).isEqualTo("done");
+		assertThat(second.join()).isEqualTo("done");
+		assertThat(callExecutor.submit("slow", () -> "ok").join()).isEqualTo("ok");
+	}
+
+	private static String block(CountDownLatch started, CountDownLatch release) {
+		started.countDown();
+		try {
+			release.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return "done";
+	}
+
+}
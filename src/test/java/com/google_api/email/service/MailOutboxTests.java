@@ -0,0 +1,83 @@
+package com.google_api.email.service;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google_api.config.GoogleAccountRegistry;
+import com.google_api.config.StubContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MailOutboxTests {
+
+	@TempDir
+	Path journalDir;
+
+	private AnnotationConfigApplicationContext context;
+	private MailOutbox outbox;
+
+	@BeforeEach
+	void setUp() {
+		context = StubContext.start(new MockHttpTransport(), Map.of(
+						"gmail.outbox.journal-file", journalDir.resolve("journal.ndjson").toString(),
+						"gmail.outbox.retry-backoff", "PT0.001S"),
+				GoogleAccountRegistry.class, MutationJournal.class, MailOutbox.class);
+		outbox = context.getBean(MailOutbox.class);
+	}
+
+	@AfterEach
+	void tearDown() {
+		context.close();
+	}
+
+	@Test
+	void notFoundIsRetriedOnce() throws Exception {
+		AtomicInteger calls = new AtomicInteger();
+		outbox.register("stale-label", operation -> {
+			if (calls.incrementAndGet() == 1) {
+				throw error(404);
+			}
+			return "SUCCESS";
+		});
+
+		MailOutbox.Operation operation = outbox.submit("stale-label", Map.of(), null);
+
+		assertThat(operation.outcome().get(5, TimeUnit.SECONDS)).isEqualTo("SUCCESS");
+		assertThat(operation.toDto().attempts()).isEqualTo(2);
+	}
+
+	@Test
+	void repeatedNotFoundAndOtherClientErrorsFail() throws Exception {
+		outbox.register("missing", operation -> {
+			throw error(404);
+		});
+		outbox.register("bad-request", operation -> {
+			throw error(400);
+		});
+
+		MailOutbox.Operation missing = outbox.submit("missing", Map.of(), null);
+		MailOutbox.Operation badRequest = outbox.submit("bad-request", Map.of(), null);
+
+		assertThat(missing.outcome().get(5, TimeUnit.SECONDS)).startsWith("failure: ");
+		assertThat(missing.toDto().attempts()).isEqualTo(2);
+		assertThat(badRequest.outcome().get(5, TimeUnit.SECONDS)).startsWith("failure: ");
+		assertThat(badRequest.toDto().attempts()).isEqualTo(1);
+	}
+
+	private static GoogleJsonResponseException error(int statusCode) {
+		return new GoogleJsonResponseException(new HttpResponseException.Builder(statusCode, null, new HttpHeaders()),
+				new GoogleJsonError().setCode(statusCode));
+	}
+
+}